@@ -1,34 +1,99 @@
+-- clinics, 'main' is where everything lives until more are added
+CREATE TABLE Locations (
+    Name varchar(255),
+    Latitude float,
+    Longitude float,
+    PRIMARY KEY (Name)
+);
+
+INSERT INTO Locations (Name, Latitude, Longitude) VALUES ('main', NULL, NULL);
+
 CREATE TABLE Caregivers (
+    CaregiverID int IDENTITY(1, 1) NOT NULL, -- what SearchCache keeps instead of the name
     Username varchar(255),
     Salt BINARY(16),
     Hash BINARY(16),
-    PRIMARY KEY (Username)
+    HashParams varchar(64), -- NULL for hashes created before PasswordHasher
+    Location varchar(255) NOT NULL DEFAULT 'main' REFERENCES Locations, -- where the caregiver usually works
+    PRIMARY KEY (Username),
+    CONSTRAINT UQ_Caregivers_CaregiverID UNIQUE (CaregiverID)
 );
 
 CREATE TABLE Patients (
     Username varchar(255),
     Salt BINARY(16),
     Hash BINARY(16),
+    HashParams varchar(64), -- NULL for hashes created before PasswordHasher
     PRIMARY KEY (Username)
 );
 
+-- stock is kept per clinic
+CREATE TABLE Vaccines (
+    Location varchar(255) NOT NULL DEFAULT 'main' REFERENCES Locations,
+    Name varchar(255),
+    Doses int,
+    PRIMARY KEY (Location, Name)
+);
+
 CREATE TABLE Appointment (
-    AppointmentID int NOT NULL AUTO_INCREMENT,
+    AppointmentID int IDENTITY(1, 1) NOT NULL,
     AppointmentDate date,
     CaregiverUsername varchar(255) REFERENCES Caregivers,
     PatientUsername varchar(255) REFERENCES Patients,
-    VaccineName varchar(255) REFERENCES Vaccines,
-    PRIMARY KEY (AppointmentID)
+    VaccineName varchar(255),
+    Location varchar(255) NOT NULL DEFAULT 'main',
+    PRIMARY KEY (AppointmentID),
+    FOREIGN KEY (Location, VaccineName) REFERENCES Vaccines (Location, Name),
+    CONSTRAINT UQ_Appointment_Date_Caregiver UNIQUE (AppointmentDate, CaregiverUsername) -- one booking per caregiver a day
 );
 
 CREATE TABLE Availabilities (
     Time date,
     Username varchar(255) REFERENCES Caregivers,
+    Location varchar(255) NOT NULL DEFAULT 'main' REFERENCES Locations, -- a caregiver is at one clinic per day
     PRIMARY KEY (Time, Username)
 );
 
-CREATE TABLE Vaccines (
-    Name varchar(255),
-    Doses int,
-    PRIMARY KEY (Name)
+CREATE INDEX IX_Availabilities_Location_Time ON Availabilities (Location, Time);
+
+CREATE TABLE JournalReplication (
+    JournalID varchar(64),
+    LastSequence bigint,
+    PRIMARY KEY (JournalID)
+);
+
+CREATE TABLE ChangeLog (
+    ChangeID bigint IDENTITY(1, 1) NOT NULL,
+    NodeID varchar(64),
+    Kind varchar(32),
+    AppointmentID int,
+    ChangeDate date,
+    Caregiver varchar(255),
+    Patient varchar(255),
+    Vaccine varchar(255),
+    Location varchar(255),
+    Amount int,
+    ChangedAt datetime,
+    PRIMARY KEY (ChangeID)
+);
+
+-- reminders for the next day's appointments, picked up from here by whatever delivers them
+CREATE TABLE ReminderOutbox (
+    ReminderID bigint IDENTITY(1, 1) NOT NULL,
+    ReminderDate date,
+    Recipient varchar(255),
+    Role varchar(16), -- patient or caregiver
+    Message varchar(4000),
+    CreatedAt datetime,
+    PRIMARY KEY (ReminderID)
+);
+
+CREATE INDEX IX_ReminderOutbox_ReminderDate ON ReminderOutbox (ReminderDate);
+
+-- how far ReminderJob got for each day, Finished is set once every reminder is in the outbox
+CREATE TABLE ReminderCheckpoint (
+    ReminderDate date,
+    LastPatient varchar(255),
+    Finished datetime,
+    PRIMARY KEY (ReminderDate)
 );
\ No newline at end of file
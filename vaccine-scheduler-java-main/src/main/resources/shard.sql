@@ -0,0 +1,56 @@
+-- Schema for a database listed in ShardURLs (SQL Server, like the primary). A shard only stores the
+-- appointments and availabilities of the dates it owns, and the change log for them; users, locations,
+-- vaccines and reminders stay on the primary (create.sql), so there are no foreign keys here. Both tables
+-- are partitioned by month, so a date range only touches its own partitions and an old month can be emptied
+-- with TRUNCATE TABLE ... WITH (PARTITIONS (n)). Add months before they are needed with
+--   ALTER PARTITION SCHEME MonthScheme NEXT USED [PRIMARY];
+--   ALTER PARTITION FUNCTION MonthFunction() SPLIT RANGE ('2028-02-01');
+-- which splits both tables at once.
+
+CREATE PARTITION FUNCTION MonthFunction (date) AS RANGE RIGHT FOR VALUES (
+    '2026-02-01', '2026-03-01', '2026-04-01', '2026-05-01', '2026-06-01', '2026-07-01',
+    '2026-08-01', '2026-09-01', '2026-10-01', '2026-11-01', '2026-12-01', '2027-01-01',
+    '2027-02-01', '2027-03-01', '2027-04-01', '2027-05-01', '2027-06-01', '2027-07-01',
+    '2027-08-01', '2027-09-01', '2027-10-01', '2027-11-01', '2027-12-01', '2028-01-01'
+);
+
+CREATE PARTITION SCHEME MonthScheme AS PARTITION MonthFunction ALL TO ([PRIMARY]);
+
+CREATE TABLE Appointment (
+    AppointmentID int IDENTITY(1, 1) NOT NULL,
+    AppointmentDate date NOT NULL,
+    CaregiverUsername varchar(255),
+    PatientUsername varchar(255),
+    VaccineName varchar(255),
+    Location varchar(255) NOT NULL DEFAULT 'main',
+    CONSTRAINT PK_Appointment PRIMARY KEY (AppointmentID, AppointmentDate),
+    CONSTRAINT UQ_Appointment_Date_Caregiver UNIQUE (AppointmentDate, CaregiverUsername) -- one booking per caregiver a day
+) ON MonthScheme (AppointmentDate);
+
+-- indexes on a partitioned table are partitioned the same way unless told otherwise
+CREATE INDEX IX_Appointment_PatientUsername ON Appointment (PatientUsername);
+CREATE INDEX IX_Appointment_CaregiverUsername ON Appointment (CaregiverUsername);
+
+CREATE TABLE Availabilities (
+    Time date NOT NULL,
+    Username varchar(255) NOT NULL,
+    Location varchar(255) NOT NULL DEFAULT 'main',
+    CONSTRAINT PK_Availabilities PRIMARY KEY (Time, Username)
+) ON MonthScheme (Time);
+
+CREATE INDEX IX_Availabilities_Location_Time ON Availabilities (Location, Time);
+
+CREATE TABLE ChangeLog (
+    ChangeID bigint IDENTITY(1, 1) NOT NULL,
+    NodeID varchar(64),
+    Kind varchar(32),
+    AppointmentID int,
+    ChangeDate date,
+    Caregiver varchar(255),
+    Patient varchar(255),
+    Vaccine varchar(255),
+    Location varchar(255),
+    Amount int,
+    ChangedAt datetime,
+    PRIMARY KEY (ChangeID)
+);
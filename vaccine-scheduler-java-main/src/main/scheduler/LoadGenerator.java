@@ -0,0 +1,380 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardedConnections;
+import scheduler.log.Log;
+import scheduler.util.Metrics;
+import scheduler.util.Util;
+import scheduler.util.ZipfSampler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synthetic surge against the Scheduler command handlers.
+ *
+ * Setup creates LoadCaregivers caregivers who upload availability for LoadDays days starting tomorrow,
+ * LoadVaccines vaccines with LoadDoses doses each, and LoadPatients patients who are logged in once.
+ * Then LoadThreads threads send reserve / search_caregiver_schedule / show_appointments for LoadSeconds,
+ * picking dates and vaccines with a Zipf(LoadZipfExponent) skew towards the first ones, and the run ends
+ * with throughput, latency percentiles, outcomes per command, and a check of the tables for double-booked
+ * caregivers and negative stock.
+ *
+ * Every command goes through the same registry as typed input, including admission control, so rejections
+ * show up as "busy". Commands print their results, so System.out is swapped for a per-thread buffer and
+ * each result is classified from what the handler printed.
+ *
+ * It runs against whatever ConnectionManager points at. To run locally without SQL Server, put an embedded
+ * database driver such as H2 on the classpath, set ConnectionURL to it (e.g. jdbc:h2:mem:load;MODE=MSSQLServer;
+ * DB_CLOSE_DELAY=-1) and LoadCreateSchema=true to run create.sql first. Lowering HashIterations keeps setup fast.
+ */
+public class LoadGenerator {
+
+    private static final String PASSWORD = "LoadTest1!";
+    private static final String[] OPERATIONS = {"reserve", "search", "show"};
+
+    private static final PrintStream console = System.out;
+    private static final ThreadLocal<ByteArrayOutputStream> captured =
+            ThreadLocal.withInitial(ByteArrayOutputStream::new);
+
+    public static void main(String[] args) throws Exception {
+        int patients = Integer.parseInt(Util.getenvOrDefault("LoadPatients", "200"));
+        int caregivers = Integer.parseInt(Util.getenvOrDefault("LoadCaregivers", "20"));
+        int days = Integer.parseInt(Util.getenvOrDefault("LoadDays", "30"));
+        int vaccines = Integer.parseInt(Util.getenvOrDefault("LoadVaccines", "3"));
+        int doses = Integer.parseInt(Util.getenvOrDefault("LoadDoses", "200"));
+        int threads = Integer.parseInt(Util.getenvOrDefault("LoadThreads", "8"));
+        long seconds = Long.parseLong(Util.getenvOrDefault("LoadSeconds", "30"));
+        double exponent = Double.parseDouble(Util.getenvOrDefault("LoadZipfExponent", "1.0"));
+        int reservePercent = Integer.parseInt(Util.getenvOrDefault("LoadReservePercent", "50"));
+        int searchPercent = Integer.parseInt(Util.getenvOrDefault("LoadSearchPercent", "30"));
+        // unique per run so repeated runs against the same database don't collide
+        String prefix = Util.getenvOrDefault("LoadPrefix", "load" + Long.toString(System.currentTimeMillis(), 36));
+
+        ConnectionManager probe = new ConnectionManager();
+        if (probe.createConnection() == null) {
+            console.println("Cannot connect to the database, set ConnectionURL (or Server and DBName)");
+            return;
+        }
+        probe.closeConnection();
+        if (Boolean.parseBoolean(Util.getenvOrDefault("LoadCreateSchema", "false"))) {
+            createSchema();
+        }
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                captured.get().write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                captured.get().write(b, off, len);
+            }
+        }, true));
+        Scheduler.startup();
+
+        // --- setup ---
+        long setupStart = System.nanoTime();
+        List<Date> dates = new ArrayList<>();
+        for (int i = 1; i <= days; i++) {
+            dates.add(Date.valueOf(LocalDate.now().plusDays(i)));
+        }
+        List<String> vaccineNames = new ArrayList<>();
+        for (int i = 0; i < vaccines; i++) {
+            vaccineNames.add(prefix + "_vaccine" + i);
+        }
+        for (int i = 0; i < caregivers; i++) {
+            String username = prefix + "_c" + i;
+            Session session = new Session();
+            runUntilAdmitted(session, "create_caregiver " + username + " " + PASSWORD);
+            runUntilAdmitted(session, "login_caregiver " + username + " " + PASSWORD);
+            for (Date d : dates) {
+                runUntilAdmitted(session, "upload_availability " + d);
+            }
+            if (i == 0) {
+                for (String vaccine : vaccineNames) {
+                    runUntilAdmitted(session, "add_doses " + vaccine + " " + doses);
+                }
+            }
+        }
+        Session[] sessions = new Session[patients];
+        for (int i = 0; i < patients; i++) {
+            String username = prefix + "_p" + i;
+            sessions[i] = new Session();
+            runUntilAdmitted(sessions[i], "create_patient " + username + " " + PASSWORD);
+            String result = runUntilAdmitted(sessions[i], "login_patient " + username + " " + PASSWORD);
+            if (!result.startsWith("Logged in")) {
+                console.println("Setup failed for " + username + ": " + result.trim());
+                return;
+            }
+        }
+        console.printf("setup: %d caregivers, %d days, %d vaccines, %d patients in %d ms%n", caregivers, days,
+                vaccines, patients, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - setupStart));
+
+        // --- run ---
+        ZipfSampler dateSampler = new ZipfSampler(days, exponent);
+        ZipfSampler vaccineSampler = new ZipfSampler(vaccines, exponent);
+        Worker[] workers = new Worker[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long runStart = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker(t, threads, sessions, dates, vaccineNames, dateSampler, vaccineSampler,
+                    reservePercent, searchPercent, deadline, done);
+            Thread thread = new Thread(workers[t], "load-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        double elapsedSeconds = (System.nanoTime() - runStart) / 1e9;
+
+        // --- report ---
+        console.printf("run: %d threads for %.1f s, Zipf exponent %.2f%n", threads, elapsedSeconds, exponent);
+        long total = 0;
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            long[] latencies = new long[0];
+            Map<String, Long> outcomes = new TreeMap<>();
+            for (Worker worker : workers) {
+                latencies = concat(latencies, worker.latencies(op));
+                for (Map.Entry<String, Long> outcome : worker.outcomes.get(op).entrySet()) {
+                    outcomes.merge(outcome.getKey(), outcome.getValue(), Long::sum);
+                }
+            }
+            total += latencies.length;
+            Arrays.sort(latencies);
+            console.printf("%-8s %8d ops %9.1f ops/s  p50 %7.2f ms  p95 %7.2f ms  p99 %7.2f ms  max %7.2f ms  %s%n",
+                    OPERATIONS[op], latencies.length, latencies.length / elapsedSeconds,
+                    percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99),
+                    percentile(latencies, 1.0), outcomes);
+        }
+        console.printf("total    %8d ops %9.1f ops/s%n", total, total / elapsedSeconds);
+        reportConflicts(prefix);
+        for (Map.Entry<String, Long> counter : Metrics.snapshot().entrySet()) {
+            console.println(counter.getKey() + ": " + counter.getValue());
+        }
+        Scheduler.closeJournal();
+        System.exit(0);
+    }
+
+    private static class Worker implements Runnable {
+        private final int index;
+        private final int stride;
+        private final Session[] sessions;
+        private final List<Date> dates;
+        private final List<String> vaccineNames;
+        private final ZipfSampler dateSampler;
+        private final ZipfSampler vaccineSampler;
+        private final int reservePercent;
+        private final int searchPercent;
+        private final long deadline;
+        private final CountDownLatch done;
+        private final Random random;
+        // per operation: latencies in microseconds and outcome counts
+        private final long[][] latencies = new long[OPERATIONS.length][1024];
+        private final int[] counts = new int[OPERATIONS.length];
+        private final List<Map<String, Long>> outcomes = new ArrayList<>();
+
+        Worker(int index, int stride, Session[] sessions, List<Date> dates, List<String> vaccineNames,
+               ZipfSampler dateSampler, ZipfSampler vaccineSampler, int reservePercent, int searchPercent,
+               long deadline, CountDownLatch done) {
+            this.index = index;
+            this.stride = stride;
+            this.sessions = sessions;
+            this.dates = dates;
+            this.vaccineNames = vaccineNames;
+            this.dateSampler = dateSampler;
+            this.vaccineSampler = vaccineSampler;
+            this.reservePercent = reservePercent;
+            this.searchPercent = searchPercent;
+            this.deadline = deadline;
+            this.done = done;
+            this.random = new Random(index);
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                outcomes.add(new TreeMap<>());
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                // each worker drives its own share of the patients, so no session is used by two threads
+                int next = index;
+                while (System.nanoTime() < deadline && index < sessions.length) {
+                    Session session = sessions[next];
+                    next += stride;
+                    if (next >= sessions.length) {
+                        next = index;
+                    }
+                    int roll = random.nextInt(100);
+                    int op = roll < reservePercent ? 0 : roll < reservePercent + searchPercent ? 1 : 2;
+                    String line;
+                    if (op == 0) {
+                        line = "reserve " + dates.get(dateSampler.next(random)) + " " +
+                                vaccineNames.get(vaccineSampler.next(random));
+                    } else if (op == 1) {
+                        line = "search_caregiver_schedule " + dates.get(dateSampler.next(random));
+                    } else {
+                        line = "show_appointments";
+                    }
+                    long start = System.nanoTime();
+                    String result = execute(session, line);
+                    record(op, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), classify(op, result));
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void record(int op, long micros, String outcome) {
+            if (counts[op] == latencies[op].length) {
+                latencies[op] = Arrays.copyOf(latencies[op], counts[op] * 2);
+            }
+            latencies[op][counts[op]++] = micros;
+            outcomes.get(op).merge(outcome, 1L, Long::sum);
+        }
+
+        long[] latencies(int op) {
+            return Arrays.copyOf(latencies[op], counts[op]);
+        }
+    }
+
+    private static String classify(int op, String result) {
+        if (result.startsWith("Server busy")) {
+            return "busy";
+        }
+        if (result.contains("Error occurred")) {
+            return "error";
+        }
+        if (op == 0) {
+            if (result.startsWith("Appointment reserved")) {
+                return "booked";
+            }
+            if (result.startsWith("No caregivers available")) {
+                return "no_caregiver";
+            }
+            if (result.startsWith("Vaccine not available")) {
+                return "no_vaccine";
+            }
+            return "other";
+        }
+        return "ok";
+    }
+
+    // run a command and return what it printed
+    private static String execute(Session session, String line) {
+        ByteArrayOutputStream buffer = captured.get();
+        buffer.reset();
+        Scheduler.dispatch(session, line);
+        return buffer.toString(StandardCharsets.UTF_8);
+    }
+
+    // setup must not be turned away by admission control, so wait out the retry hint and send it again
+    private static String runUntilAdmitted(Session session, String line) throws InterruptedException {
+        while (true) {
+            String result = execute(session, line);
+            if (!result.startsWith("Server busy")) {
+                return result;
+            }
+            String[] words = result.trim().split(" ");
+            long waitMillis = 100;
+            for (int i = 1; i < words.length; i++) {
+                if (words[i].equals("ms.")) {
+                    waitMillis = Long.parseLong(words[i - 1]);
+                }
+            }
+            Thread.sleep(Math.max(1, waitMillis));
+        }
+    }
+
+    // a caregiver booked twice on one day, or stock below zero, means two reservations raced and both won
+    private static void reportConflicts(String prefix) {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            console.println("conflicts: could not connect to check");
+            return;
+        }
+        ShardedConnections shards = new ShardedConnections(con);
+        try {
+            // a caregiver's day is always on one shard, so per shard counts add up
+            long doubleBooked = 0;
+            for (int shard = 0; shard < ConnectionManager.shardCount(); shard++) {
+                ResultSet resultSet = shards.forShard(shard).createStatement().executeQuery("SELECT COUNT(*) FROM " +
+                        "(SELECT CaregiverUsername, AppointmentDate FROM Appointment WHERE CaregiverUsername LIKE '" +
+                        prefix + "\\_%' ESCAPE '\\' GROUP BY CaregiverUsername, AppointmentDate HAVING COUNT(*) > 1) d");
+                resultSet.next();
+                doubleBooked += resultSet.getLong(1);
+            }
+            Statement statement = con.createStatement();
+            ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM Vaccines WHERE Name LIKE '" + prefix +
+                    "\\_%' ESCAPE '\\' AND Doses < 0");
+            resultSet.next();
+            long oversold = resultSet.getLong(1);
+            console.println("conflicts: " + doubleBooked + " double-booked caregiver days, " + oversold +
+                    " vaccines with negative stock");
+        } catch (SQLException e) {
+            console.println("conflicts: error occurred when checking");
+            Log.error("conflicts: error occurred when checking", e);
+        } finally {
+            shards.close();
+            cm.closeConnection();
+        }
+    }
+
+    private static void createSchema() throws IOException, SQLException {
+        String script;
+        try (InputStream in = LoadGenerator.class.getResourceAsStream("/create.sql")) {
+            if (in == null) {
+                throw new IOException("create.sql is not on the classpath");
+            }
+            script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLException();
+        }
+        try {
+            Statement statement = con.createStatement();
+            for (String sql : script.split(";")) {
+                if (!sql.replaceAll("--.*", "").trim().isEmpty()) {
+                    statement.execute(sql);
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000.0;
+    }
+
+    private static long[] concat(long[] a, long[] b) {
+        long[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -1,50 +1,220 @@
 package scheduler;
 
+import scheduler.changes.Change;
+import scheduler.changes.ChangeFeed;
+import scheduler.changes.ChangeLog;
+import scheduler.command.ArgType;
+import scheduler.command.Arguments;
+import scheduler.command.CommandRegistry;
+import scheduler.command.CommandSpec;
 import scheduler.db.ConnectionManager;
+import scheduler.db.HedgedRead;
+import scheduler.db.ShardedConnections;
+import scheduler.export.AppointmentExporter;
+import scheduler.journal.BookingEvent;
+import scheduler.journal.BookingJournal;
+import scheduler.journal.JournalReplicator;
+import scheduler.log.Log;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
+import scheduler.model.Location;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
+import scheduler.reminder.ReminderJob;
+import scheduler.report.UtilizationReport;
+import scheduler.state.HoldManager;
+import scheduler.state.SchedulerState;
+import scheduler.state.SearchCache;
+import scheduler.state.StateSnapshot;
+import scheduler.util.BloomFilter;
+import scheduler.util.Metrics;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    private static final CommandRegistry registry = buildRegistry();
+
+    // in-memory fronts for the username-exists checks, null if they could not be built at startup
+    private static volatile BloomFilter patientUsernames = null;
+    private static volatile BloomFilter caregiverUsernames = null;
+
+    // when JournalPath is set, booking changes are written to a local journal and replicated to the database
+    // in the background; null means every change goes to the database directly
+    private static BookingJournal journal = null;
+
+    // in-memory copy of the usernames, loaded from SnapshotPath when possible; null if it could not be loaded
+    private static SchedulerState state = null;
+
+    // search_caregiver_schedule results, bounded to SearchCacheSize dates
+    private static final SearchCache searchCache = new SearchCache(
+            Integer.parseInt(Util.getenvOrDefault("SearchCacheSize", "1024")));
+
+    // tentative bookings made with hold, expired after HoldSeconds
+    private static final HoldManager holds = new HoldManager(
+            Long.parseLong(Util.getenvOrDefault("HoldSeconds", "300")) * 1000);
+
+    // how many other clinics reserve and hold try, nearest first, when the session's clinic has no slot
+    private static final int NEAREST_SITES = Integer.parseInt(Util.getenvOrDefault("NearestSites", "3"));
+
+    // most appointments reserve_group or reserve_series books in one go
+    private static final int MAX_MULTI_BOOKING = 10;
+
+    private static CommandRegistry buildRegistry() {
+        CommandRegistry registry = new CommandRegistry();
+        registry.register(new CommandSpec.CommandSpecBuilder("create_patient", Scheduler::createPatient)
+                .args("<username> <password>", ArgType.STRING, ArgType.STRING)
+                .invalidMessage("Failed to create user.")
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("create_caregiver", Scheduler::createCaregiver)
+                .args("<username> <password>", ArgType.STRING, ArgType.STRING)
+                .invalidMessage("Failed to create user.")
+                .build());
+        // logins and reservations are what everyone sends at once when new doses are announced
+        registry.register(new CommandSpec.CommandSpecBuilder("login_patient", Scheduler::loginPatient)
+                .args("<username> <password>", ArgType.STRING, ArgType.STRING)
+                .invalidMessage("Login failed.")
+                .rateLimit(50, 100)
+                .userRateLimit(0.2, 3)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("login_caregiver", Scheduler::loginCaregiver)
+                .args("<username> <password>", ArgType.STRING, ArgType.STRING)
+                .invalidMessage("Login failed.")
+                .rateLimit(50, 100)
+                .userRateLimit(0.2, 3)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("set_location", Scheduler::setLocation)
+                .args("<location>", ArgType.STRING)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("add_location", Scheduler::addLocation)
+                .args("<location> <latitude> <longitude>", ArgType.STRING, ArgType.DOUBLE, ArgType.DOUBLE)
+                .invalidMessage("Invalid input")
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("search_caregiver_schedule", Scheduler::searchCaregiverSchedule)
+                .args("<date>", ArgType.DATE)
+                .invalidMessage("Invalid input")
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("reserve", Scheduler::reserve)
+                .args("<date> <vaccine>", ArgType.DATE, ArgType.STRING)
+                .invalidMessage("Invalid input")
+                .rateLimit(100, 200)
+                .userRateLimit(1, 2)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("reserve_group", Scheduler::reserveGroup)
+                .args("<date> <vaccine> <patient>...", ArgType.DATE, ArgType.STRING, ArgType.STRING)
+                .varargs()
+                .invalidMessage("Invalid input")
+                .rateLimit(100, 200)
+                .userRateLimit(1, 2)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("reserve_series", Scheduler::reserveSeries)
+                .args("<date> <vaccine> <doses> <interval_days>", ArgType.DATE, ArgType.STRING, ArgType.INT, ArgType.INT)
+                .invalidMessage("Invalid input")
+                .rateLimit(100, 200)
+                .userRateLimit(1, 2)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("hold", Scheduler::hold)
+                .args("<date> <vaccine>", ArgType.DATE, ArgType.STRING)
+                .invalidMessage("Invalid input")
+                .rateLimit(100, 200)
+                .userRateLimit(1, 2)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("confirm", Scheduler::confirm)
+                .args("<hold_id>", ArgType.INT)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("release", Scheduler::release)
+                .args("<hold_id>", ArgType.INT)
+                .noDatabase()
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("upload_availability", Scheduler::uploadAvailability)
+                .args("<date>", ArgType.DATE)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("cancel", Scheduler::cancel)
+                .args("<appointment_id>", ArgType.INT)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("add_doses", Scheduler::addDoses)
+                .args("<vaccine> <number>", ArgType.STRING, ArgType.INT)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("show_appointments", Scheduler::showAppointments)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("export_appointments", Scheduler::exportAppointments)
+                .args("<from_date> <to_date> <csv|columnar> <file> [overwrite]", ArgType.DATE, ArgType.DATE,
+                        ArgType.STRING, ArgType.STRING)
+                .varargs()
+                .invalidMessage("Invalid input")
+                .deadline(10 * 60 * 1000)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("report", Scheduler::report)
+                .args("<from_date> <to_date>", ArgType.DATE, ArgType.DATE)
+                .invalidMessage("Invalid input")
+                .deadline(60 * 1000)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("send_reminders", Scheduler::sendReminders)
+                .args("<date>", ArgType.DATE)
+                .invalidMessage("Invalid input")
+                .deadline(10 * 60 * 1000)
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("logout", Scheduler::logout)
+                .noDatabase()
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("stats", Scheduler::stats)
+                .noDatabase()
+                .build());
+        registry.register(new CommandSpec.CommandSpecBuilder("quit", Scheduler::quit)
+                .noDatabase()
+                .build());
+        return registry;
+    }
 
     public static void main(String[] args) {
         // printing greetings text
         System.out.println();
         System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
         System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
+        for (CommandSpec spec : registry.getCommands()) {
+            System.out.println(("> " + spec.getName() + " " + spec.getUsage()).trim());
+        }
         System.out.println();
 
+        try {
+            startup();
+        } catch (IllegalStateException e) {
+            System.out.println("Cannot start: " + e.getMessage());
+            Log.error("Cannot start.", e);
+            return;
+        }
+
         // read input from user
+        Session session = new Session();
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
-        while (true) {
+        while (session.isActive()) {
             System.out.print("> ");
             String response = "";
             try {
@@ -52,55 +222,164 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
-                return;
-            } else {
-                System.out.println("Invalid operation name!");
+            // end of input behaves like quit
+            if (response == null) {
+                quit(session, null);
+                break;
             }
+            registry.dispatch(session, response);
         }
+        closeJournal();
     }
 
-    private static void createPatient(String[] tokens) { // exact same as createCaregiver but with Patients
-        // create_patient <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+    // load everything the handlers rely on, also used by LoadGenerator
+    static void startup() {
+        // a bad HashAlgorithm or HashIterations would otherwise only show up on the first login
+        PasswordHasher.checkSettings();
+        state = loadState();
+        if (state != null) {
+            patientUsernames = buildUsernameFilter(state.getPatients());
+            caregiverUsernames = buildUsernameFilter(state.getCaregivers());
+        } else {
+            patientUsernames = loadUsernameFilter("Patients");
+            caregiverUsernames = loadUsernameFilter("Caregivers");
+        }
+        journal = openJournal();
+        if (ChangeLog.isEnabled()) {
+            // other instances write to the same database, follow their changes, on every shard too
+            int shards = ConnectionManager.isSharded() ? ConnectionManager.shardCount() : 0;
+            for (int shard = -1; shard < shards; shard++) {
+                ChangeFeed.start(shard, Long.parseLong(Util.getenvOrDefault("ChangeFeedMillis", "500")),
+                        Long.parseLong(Util.getenvOrDefault("ChangeFeedGapMillis", "10000")),
+                        Long.parseLong(Util.getenvOrDefault("ChangeLogRetentionHours", "24")) * 3600 * 1000,
+                        Scheduler::applyChange, Scheduler::reloadCaches);
+            }
+        }
+        String reminderTime = System.getenv("ReminderTime");
+        if (reminderTime != null) {
+            // every day at this time (HH:mm), remind everyone booked for the next day
+            ReminderJob.schedule(LocalTime.parse(reminderTime),
+                    Integer.parseInt(Util.getenvOrDefault("ReminderBatchSize", "500")),
+                    Integer.parseInt(Util.getenvOrDefault("ReminderFetchSize", "10000")));
+        }
+    }
+
+    // a change committed by another instance, patch or invalidate what this one keeps in memory
+    private static void applyChange(Change change) {
+        switch (change.getKind()) {
+            case PATIENT_CREATED:
+                addUsername(patientUsernames, change.getPatient());
+                if (state != null) {
+                    state.onPatientCreated(change.getPatient());
+                }
+                break;
+            case CAREGIVER_CREATED:
+                addUsername(caregiverUsernames, change.getCaregiver());
+                if (state != null) {
+                    state.onCaregiverCreated(change.getCaregiver());
+                }
+                break;
+            case CAREGIVER_LOCATION:
+                // searches go by where availability was uploaded, nothing cached depends on the usual clinic
+                break;
+            case AVAILABILITY:
+                searchCache.onDateChanged(change.getLocation(), change.getDate());
+                break;
+            case DOSES:
+                searchCache.onStockChanged(change.getLocation(), change.getVaccine(), change.getAmount());
+                break;
+            case APPOINTMENT_CREATED:
+                searchCache.onDateChanged(change.getLocation(), change.getDate());
+                searchCache.onStockChanged(change.getLocation(), change.getVaccine(), -1);
+                break;
+            case APPOINTMENT_CANCELLED:
+                searchCache.onDateChanged(change.getLocation(), change.getDate());
+                searchCache.onStockChanged(change.getLocation(), change.getVaccine(), 1);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // changes from other instances may have been missed, reload everything from the database
+    private static void reloadCaches() {
+        searchCache.clear();
+        if (state == null) {
+            return;
+        }
+        try {
+            state.replaceWith(SchedulerState.loadFromDatabase());
+            patientUsernames = buildUsernameFilter(state.getPatients());
+            caregiverUsernames = buildUsernameFilter(state.getCaregivers());
+        } catch (SQLException e) {
+            Log.error("Error occurred when reloading the scheduler state", e);
+        }
+    }
+
+    // run one command line as if it had been typed in the session
+    static void dispatch(Session session, String line) {
+        registry.dispatch(session, line);
+    }
+
+    private static BookingJournal openJournal() {
+        String path = System.getenv("JournalPath");
+        if (path == null) {
+            return null;
+        }
+        if (ConnectionManager.isSharded()) {
+            // the replicator applies bookings on one database and cannot split them over shards
+            System.out.println("JournalPath is ignored when ShardURLs is set, writing to the database directly");
+            return null;
+        }
+        try {
+            long sizeBytes = Long.parseLong(Util.getenvOrDefault("JournalSizeMB", "64")) * 1024 * 1024;
+            long flushMillis = Long.parseLong(Util.getenvOrDefault("JournalFlushMillis", "2"));
+            BookingJournal opened = BookingJournal.open(Paths.get(path), sizeBytes, flushMillis);
+            // events the database refuses are written next to the journal
+            Path deadLetterPath = Paths.get(Util.getenvOrDefault("JournalDeadLetterPath", path + ".rejected"));
+            JournalReplicator.start(opened, deadLetterPath, searchCache);
+            return opened;
+        } catch (IOException | IllegalArgumentException e) {
+            // IllegalArgumentException: a JournalSizeMB or JournalFlushMillis that is not a number
+            System.out.println("Error occurred when opening the journal, writing to the database directly");
+            Log.error("Error occurred when opening the journal, writing to the database directly", e);
+            return null;
+        }
+    }
+
+    private static SchedulerState loadState() {
+        String path = System.getenv("SnapshotPath");
+        Path snapshotPath = path == null ? null : Paths.get(path);
+        try {
+            SchedulerState loaded = StateSnapshot.loadOrRebuild(snapshotPath);
+            if (snapshotPath != null) {
+                StateSnapshot.schedule(loaded, snapshotPath,
+                        Long.parseLong(Util.getenvOrDefault("SnapshotIntervalSeconds", "300")));
+            }
+            return loaded;
+        } catch (SQLException e) {
+            System.out.println("Error occurred when loading the scheduler state");
+            Log.error("Error occurred when loading the scheduler state", e);
+            return null;
+        }
+    }
+
+    static void closeJournal() {
+        if (journal == null) {
             return;
         }
-        String username = tokens[1];
-        String password = tokens[2];
+        try {
+            journal.close();
+        } catch (IOException e) {
+            Log.error("Error occurred when closing the journal", e);
+        }
+    }
+
+    private static void createPatient(Session session, Arguments args) { // exact same as createCaregiver but with Patients
+        // create_patient <username> <password>
+        // check 1: the number of arguments is validated by the registry
+        String username = args.getString(0);
+        String password = args.getString(1);
         // check 2: check if the username has been taken already
         if (usernameExistsPatient(username)) {
             System.out.println("Username taken, try again!");
@@ -117,29 +396,31 @@ public class Scheduler {
             return;
         }
 
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
         // create the patient
         try {
-            Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
+            byte[] salt = Util.generateSalt();
+            byte[] hash = PasswordHasher.hash(password, salt);
+            Patient patient = new Patient.PatientBuilder(username, salt, hash, PasswordHasher.currentParams()).build();
             // save to patient information to our database
             patient.saveToDB();
+            addUsername(patientUsernames, username);
+            if (state != null) {
+                state.onPatientCreated(username);
+            }
             System.out.println("Created user " + username);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Server busy, please try again later.");
         } catch (SQLException e) {
             System.out.println("Failed to create user.");
-            e.printStackTrace();
+            Log.error("Failed to create user.", e);
         }
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, Arguments args) {
         // create_caregiver <username> <password>
-        // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
-            return;
-        }
-        String username = tokens[1];
-        String password = tokens[2];
+        // check 1: the number of arguments is validated by the registry
+        String username = args.getString(0);
+        String password = args.getString(1);
         // check 2: check if the username has been taken already
         if (usernameExistsCaregiver(username)) {
             System.out.println("Username taken, try again!");
@@ -156,21 +437,32 @@ public class Scheduler {
             return;
         }
 
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
         // create the caregiver
         try {
-            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
+            byte[] salt = Util.generateSalt();
+            byte[] hash = PasswordHasher.hash(password, salt);
+            Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash, PasswordHasher.currentParams()).build(); 
             // save to caregiver information to our database
             caregiver.saveToDB();
+            addUsername(caregiverUsernames, username);
+            if (state != null) {
+                state.onCaregiverCreated(username);
+            }
             System.out.println("Created user " + username);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Server busy, please try again later.");
         } catch (SQLException e) {
             System.out.println("Failed to create user.");
-            e.printStackTrace();
+            Log.error("Failed to create user.", e);
         }
     }
 
     private static boolean usernameExistsPatient(String username) { // exact same as usernameExistsCaregiver
+        // a definite negative from the filter means the username is free, no need to ask the database
+        if (patientUsernames != null && !patientUsernames.mightContain(usernameKey(username))) {
+            Metrics.increment("bloom.patients.negative");
+            return false;
+        }
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
@@ -180,10 +472,12 @@ public class Scheduler {
             statement.setString(1, username);
             ResultSet resultSet = statement.executeQuery();
             // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            boolean exists = resultSet.isBeforeFirst();
+            recordFilterHit(patientUsernames, "bloom.patients", exists);
+            return exists;
         } catch (SQLException e) {
             System.out.println("Error occurred when checking username");
-            e.printStackTrace();
+            Log.error("Error occurred when checking username", e);
         } finally {
             cm.closeConnection();
         }
@@ -191,6 +485,11 @@ public class Scheduler {
     }
 
     private static boolean usernameExistsCaregiver(String username) {
+        // a definite negative from the filter means the username is free, no need to ask the database
+        if (caregiverUsernames != null && !caregiverUsernames.mightContain(usernameKey(username))) {
+            Metrics.increment("bloom.caregivers.negative");
+            return false;
+        }
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
@@ -200,38 +499,96 @@ public class Scheduler {
             statement.setString(1, username);
             ResultSet resultSet = statement.executeQuery();
             // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            boolean exists = resultSet.isBeforeFirst();
+            recordFilterHit(caregiverUsernames, "bloom.caregivers", exists);
+            return exists;
         } catch (SQLException e) {
             System.out.println("Error occurred when checking username");
-            e.printStackTrace();
+            Log.error("Error occurred when checking username", e);
         } finally {
             cm.closeConnection();
         }
         return true;
     }
 
-    private static void loginPatient(String[] tokens) {
+    private static BloomFilter buildUsernameFilter(List<String> usernames) {
+        // leave room for the users that sign up while we are running
+        BloomFilter filter = new BloomFilter(Math.max(2 * usernames.size(), 10000), 0.01);
+        for (String username : usernames) {
+            filter.add(usernameKey(username));
+        }
+        return filter;
+    }
+
+    // build a Bloom filter holding every username in the given table, returns null if the table can't be read
+    // so that the checks fall back to the database
+    private static BloomFilter loadUsernameFilter(String table) {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            return null;
+        }
+
+        try {
+            Statement statement = con.createStatement();
+            ResultSet resultSet = statement.executeQuery("SELECT Username FROM " + table);
+            List<String> usernames = new ArrayList<>();
+            while (resultSet.next()) {
+                usernames.add(resultSet.getString(1));
+            }
+            return buildUsernameFilter(usernames);
+        } catch (SQLException e) {
+            System.out.println("Error occurred when loading usernames");
+            Log.error("Error occurred when loading usernames", e);
+            return null;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // usernames compare case-insensitively in the database, so the filter has to as well
+    private static String usernameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private static void addUsername(BloomFilter filter, String username) {
+        if (filter != null) {
+            filter.add(usernameKey(username));
+        }
+    }
+
+    // the filter said "maybe" and the database gave the answer, count how often "maybe" was wrong
+    private static void recordFilterHit(BloomFilter filter, String metric, boolean exists) {
+        if (filter == null) {
+            return;
+        }
+        Metrics.increment(metric + ".positive");
+        if (!exists) {
+            Metrics.increment(metric + ".false_positive");
+        }
+    }
+
+    private static void loginPatient(Session session, Arguments args) {
         // login_patient <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
+        if (session.isLoggedIn()) {
             System.out.println("User already logged in.");
             return;
         }
 
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Login failed.");
-            return;
-        }
-        String username = tokens[1];
-        String password = tokens[2];
+        // check 2: the number of arguments is validated by the registry
+        String username = args.getString(0);
+        String password = args.getString(1);
 
         Patient patient = null;
         try {
             patient = new Patient.PatientGetter(username, password).get();
+        } catch (RejectedExecutionException e) {
+            System.out.println("Server busy, please try again later.");
+            return;
         } catch (SQLException e) {
             System.out.println("Login failed.");
-            e.printStackTrace();
+            Log.error("Login failed.", e);
         }
 
         // check if the login was successful
@@ -239,357 +596,1041 @@ public class Scheduler {
             System.out.println("Login failed.");
         } else {
             System.out.println("Logged in as: " + username);
-            currentPatient = patient;
+            session.setCurrentPatient(patient);
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, Arguments args) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
+        if (session.isLoggedIn()) {
             System.out.println("User already logged in.");
             return;
         }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
-            System.out.println("Login failed.");
-            return;
-        }
-        String username = tokens[1];
-        String password = tokens[2];
+        // check 2: the number of arguments is validated by the registry
+        String username = args.getString(0);
+        String password = args.getString(1);
 
         Caregiver caregiver = null;
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
+        } catch (RejectedExecutionException e) {
+            System.out.println("Server busy, please try again later.");
+            return;
         } catch (SQLException e) {
             System.out.println("Login failed.");
-            e.printStackTrace();
+            Log.error("Login failed.", e);
         }
         // check if the login was successful
         if (caregiver == null) {
             System.out.println("Login failed.");
         } else {
             System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.setCurrentCaregiver(caregiver);
+            session.setLocation(caregiver.getLocation());
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
-
-        // if no one is logged in, print an error message and return
-        if (currentCaregiver == null && currentPatient == null) {
+    private static void setLocation(Session session, Arguments args) {
+        // set_location <location>
+        // searches and bookings from now on are made at this clinic, for a caregiver it also becomes their own
+        if (!session.isLoggedIn()) {
             System.out.println("Please login first!");
             return;
         }
+        try {
+            Location location = new Location.LocationGetter(args.getString(0)).get();
+            if (location == null) {
+                System.out.println("Location not found.");
+                return;
+            }
+            Caregiver currentCaregiver = session.getCurrentCaregiver();
+            if (currentCaregiver != null) {
+                currentCaregiver.updateLocation(location.getName());
+            }
+            session.setLocation(location.getName());
+            System.out.println("Location set to " + location.getName() + ".");
+        } catch (SQLException e) {
+            System.out.println("Error occurred when setting the location");
+            Log.error("Error occurred when setting the location", e);
+        }
+    }
 
-        // Check for the correct number of tokens
-        if (tokens.length != 2) {
+    private static void addLocation(Session session, Arguments args) {
+        // add_location <location> <latitude> <longitude>
+        if (session.getCurrentCaregiver() == null) {
+            System.out.println("Please login as a caregiver first!");
+            return;
+        }
+        String name = args.getString(0);
+        double latitude = args.getDouble(1);
+        double longitude = args.getDouble(2);
+        if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
             System.out.println("Invalid input");
             return;
         }
+        try {
+            if (new Location.LocationGetter(name).get() != null) {
+                System.out.println("Location already exists.");
+                return;
+            }
+            new Location.LocationBuilder(name, latitude, longitude).build().saveToDB();
+            System.out.println("Location " + name + " added.");
+        } catch (SQLException e) {
+            System.out.println("Error occurred when adding the location");
+            Log.error("Error occurred when adding the location", e);
+        }
+    }
 
-        // Get the date from the tokens
-        String date = tokens[1];
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+    private static void searchCaregiverSchedule(Session session, Arguments args) {
 
-        try {
+        // if no one is logged in, print an error message and return
+        if (!session.isLoggedIn()) {
+            System.out.println("Please login first!");
+            return;
+        }
+
+        // Get the date from the arguments, the registry has already checked that it is valid
+        Date d = args.getDate(0);
+        // only the session's clinic is searched
+        String location = session.getLocation();
+
+        // served from the cache when possible, only the missing half is read from the database
+        long loadedAt = searchCache.generation();
+        List<String> caregivers = searchCache.getCaregivers(location, d);
+        Map<String, Integer> stock = searchCache.getStock(location);
+        if (caregivers == null || stock == null) {
+            // read-only, may be served by the replica, and hedged if it is slow
+            boolean loadCaregivers = caregivers == null;
+            boolean loadStock = stock == null;
+            SearchResult loaded;
+            try {
+                loaded = HedgedRead.run(shards -> loadSearch(d, location, loadCaregivers, loadStock, shards));
+            } catch (SQLException e) {
+                System.out.println("Error occurred when searching for caregivers");
+                Log.error("Error occurred when searching for caregivers", e);
+                return;
+            }
+            // the replica may not have changes the cache has already been told about, so what it
+            // returns is shown but never cached; the next search reads again
+            boolean cache = !loaded.fromReplica;
+            if (loadCaregivers) {
+                caregivers = new ArrayList<>(loaded.caregivers.values());
+                if (cache) {
+                    searchCache.putCaregivers(location, d, loaded.caregivers, loadedAt);
+                }
+            }
+            if (loadStock) {
+                stock = loaded.stock;
+                if (cache) {
+                    searchCache.putStock(location, stock, loadedAt);
+                }
+            }
+        }
+
+        if (caregivers.isEmpty()) { // Check if there are any results
+            System.out.println("No caregivers available for this date.");
+            return;
+        }
+
+        // Print the results
+        for (String caregiverUsername : caregivers) {
+            if (stock.isEmpty()) {
+                System.out.println("Caregiver: " + caregiverUsername + ", Vaccine: null, Available Doses: 0");
+            }
+            for (Map.Entry<String, Integer> vaccine : stock.entrySet()) {
+                System.out.println("Caregiver: " + caregiverUsername +
+                        ", Vaccine: " + vaccine.getKey() +
+                        ", Available Doses: " + vaccine.getValue());
+            }
+        }
+    }
 
-            // Convert the date string to a Date object for the sql query
-            Date d = Date.valueOf(date);
+    // the halves of a search that were not cached
+    private static class SearchResult {
+        // CaregiverID -> username, in username order
+        private Map<Integer, String> caregivers;
+        private Map<String, Integer> stock;
+        private boolean fromReplica;
+    }
 
-            // Get the caregivers that are available for the date along with all the vaccine information
-            String getCaregivers = "SELECT a.Username, v.Name, v.Doses " +
+    private static SearchResult loadSearch(Date d, String location, boolean loadCaregivers, boolean loadStock,
+                                           ShardedConnections shards) throws SQLException {
+        SearchResult result = new SearchResult();
+        result.fromReplica = shards.isReplica();
+        if (loadCaregivers) {
+            // Get the caregivers that are available for the date at the location
+            String getCaregivers = "SELECT c.CaregiverID, a.Username " +
                     "FROM Availabilities a " +
                     "JOIN Caregivers c ON a.Username = c.Username " + // Join to get the caregiver information
-                    "LEFT JOIN Vaccines v ON 1=1 " + // Left join to get all the vaccines even if there are no doses
-                    "WHERE a.Time = ? " +
+                    "WHERE a.Time = ? AND a.Location = ? " +
                     "ORDER BY a.Username";
-            PreparedStatement statement = con.prepareStatement(getCaregivers);
+            if (ConnectionManager.isSharded()) {
+                // Caregivers is on the primary, only registered caregivers can upload availability
+                getCaregivers = "SELECT Username FROM Availabilities WHERE Time = ? AND Location = ? ORDER BY Username";
+            }
+            PreparedStatement statement = shards.forDate(d).prepareStatement(getCaregivers);
             statement.setDate(1, d);
+            statement.setString(2, location);
+            ResultSet resultSet = statement.executeQuery();
+            result.caregivers = new LinkedHashMap<>();
+            if (ConnectionManager.isSharded()) {
+                List<String> usernames = new ArrayList<>();
+                while (resultSet.next()) {
+                    usernames.add(resultSet.getString(1));
+                }
+                result.caregivers = caregiverIds(usernames, shards.primary());
+            } else {
+                while (resultSet.next()) {
+                    result.caregivers.put(resultSet.getInt(1), resultSet.getString(2));
+                }
+            }
+        }
+        if (loadStock) {
+            // along with all the vaccine information there, even if there are no doses
+            PreparedStatement statement = shards.primary().prepareStatement(
+                    "SELECT Name, Doses FROM Vaccines WHERE Location = ? ORDER BY Name");
+            statement.setString(1, location);
             ResultSet resultSet = statement.executeQuery();
+            result.stock = new LinkedHashMap<>();
+            while (resultSet.next()) {
+                result.stock.put(resultSet.getString(1), resultSet.getInt(2));
+            }
+        }
+        return result;
+    }
 
-            if (!resultSet.isBeforeFirst()) { // Check if there are any results
-                System.out.println("No caregivers available for this date.");
-                return;
+    // CaregiverID -> username for the usernames, in their order, looked up on the primary
+    private static Map<Integer, String> caregiverIds(List<String> usernames, Connection con) throws SQLException {
+        Map<Integer, String> caregivers = new LinkedHashMap<>();
+        if (usernames.isEmpty()) {
+            return caregivers;
+        }
+        PreparedStatement statement = con.prepareStatement("SELECT Username, CaregiverID FROM Caregivers " +
+                "WHERE Username IN (" + placeholders(usernames.size()) + ")");
+        for (int i = 0; i < usernames.size(); i++) {
+            statement.setString(i + 1, usernames.get(i));
+        }
+        ResultSet resultSet = statement.executeQuery();
+        Map<String, Integer> ids = new HashMap<>();
+        while (resultSet.next()) {
+            ids.put(resultSet.getString(1).toLowerCase(Locale.ROOT), resultSet.getInt(2));
+        }
+        for (String username : usernames) {
+            Integer id = ids.get(username.toLowerCase(Locale.ROOT));
+            if (id != null) {
+                caregivers.put(id, username);
             }
+        }
+        return caregivers;
+    }
 
-            // Print the results
-            while (resultSet.next()) {
-                String caregiverUsername = resultSet.getString(1);
-                String vaccineName = resultSet.getString(2);
-                int doses = resultSet.getInt(3);
+    private static void reserve(Session session, Arguments args) {
+        // Check if a patient is logged in
+        Patient currentPatient = session.getCurrentPatient();
+        if (currentPatient == null) {
+            System.out.println("Please login as a patient first!");
+            return;
+        }
 
-                System.out.println("Caregiver: " + caregiverUsername +
-                        ", Vaccine: " + vaccineName +
-                        ", Available Doses: " + doses);
+        Date d = args.getDate(0);
+        String vaccineName = args.getString(1);
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        ShardedConnections shards = new ShardedConnections(con);
+
+        try {
+            // the session's clinic first, then the nearest others
+            List<String> sites = Collections.singletonList(session.getLocation());
+            boolean vaccineFound = false;
+            boolean outOfDoses = false;
+            for (int i = 0; i < sites.size(); i++) {
+                String site = sites.get(i);
+                // Check if the vaccine is available
+                if (isVaccineAvailable(site, vaccineName, con)) {
+                    vaccineFound = true;
+                    // Find an available caregiver
+                    String caregiver = findAvailableCaregiver(d, site, shards);
+                    BookResult result = caregiver == null ? BookResult.SLOT_TAKEN
+                            : book(currentPatient.getUsername(), caregiver, d, vaccineName, site,
+                            databaseDoses(site, vaccineName, con) - holds.heldDoses(site, vaccineName), shards);
+                    if (result == BookResult.BOOKED) {
+                        System.out.println("Appointment reserved for " + currentPatient.getUsername() + " with " + caregiver + " on " + d + " for " + vaccineName + " vaccine" + atSite(site, session) + ".");
+                        return;
+                    }
+                    // another booking took the last dose since the check, try the next site
+                    outOfDoses |= result == BookResult.NO_DOSES;
+                }
+                if (i == 0) {
+                    sites = withNearestSites(site, con);
+                }
             }
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            if (outOfDoses) {
+                System.out.println("Not enough doses left.");
+            } else {
+                System.out.println(vaccineFound ? "No caregivers available on this date." : "Vaccine not available.");
+            }
+
         } catch (SQLException e) {
-            System.out.println("Error occurred when searching for caregivers");
-            e.printStackTrace();
+            shards.rollback();
+            System.out.println("Error occurred when reserving appointment");
+            Log.error("Error occurred when reserving appointment", e);
+        } catch (InterruptedException | IllegalStateException | IllegalArgumentException e) {
+            System.out.println("Error occurred when reserving appointment");
+            Log.error("Error occurred when reserving appointment", e);
         } finally {
+            shards.close();
             cm.closeConnection();
         }
+    }
+
+    // location followed by up to NearestSites other clinics, nearest first
+    private static List<String> withNearestSites(String location, Connection con) throws SQLException {
+        List<String> sites = new ArrayList<>();
+        sites.add(location);
+        Location origin = new Location.LocationGetter(location).get(con);
+        if (origin != null) {
+            sites.addAll(Location.nearest(origin, NEAREST_SITES, con));
+        }
+        return sites;
+    }
 
+    // " at <site>" when a booking was made somewhere other than the session's clinic
+    private static String atSite(String site, Session session) {
+        return site.equalsIgnoreCase(session.getLocation()) ? "" : " at " + site;
     }
 
-    private static void reserve(String[] tokens) {
-        // Check if a patient is logged in
+    // how book() went
+    private enum BookResult {
+        BOOKED,
+        // the caregiver was booked on the date since the check, or has a pending booking in the journal
+        SLOT_TAKEN,
+        // the dose checked before booking was taken by someone else in the meantime
+        NO_DOSES
+    }
+
+    /**
+     * Write an appointment whose caregiver and dose at location have already been checked, through the
+     * journal when there is one, otherwise directly on the databases that own the date and the dose. The
+     * dose is taken with a conditional update, so a concurrent booking can never push the stock below 0.
+     * The journal checks stock, the doses in the database less the holds of others, against its pending
+     * changes instead.
+     */
+    private static BookResult book(String patient, String caregiver, Date d, String vaccineName,
+                                   String location, int stock, ShardedConnections shards)
+            throws SQLException, InterruptedException {
+        if (journal != null) {
+            // record the booking locally, the replicator creates the appointment and takes the dose
+            long sequence = journal.appendReservation(BookingEvent.reserve(patient, caregiver, vaccineName,
+                    location, d), stock);
+            if (sequence == -2) {
+                Metrics.increment("reserve.no_doses");
+                return BookResult.NO_DOSES;
+            }
+            if (sequence < 0) {
+                return BookResult.SLOT_TAKEN;
+            }
+            journal.awaitDurable(sequence);
+            return BookResult.BOOKED;
+        }
+        // Create an appointment and update vaccine doses
+        Appointment appointment = new Appointment.AppointmentBuilder(d, caregiver, patient, vaccineName,
+                location).build();
+        try {
+            if (!appointment.saveToDB(shards)) {
+                Metrics.increment("reserve.no_doses");
+                return BookResult.NO_DOSES;
+            }
+        } catch (SQLException e) {
+            // a caregiver has at most one appointment a day, see UQ_Appointment_Date_Caregiver
+            if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                throw e;
+            }
+            shards.rollback();
+            Metrics.increment("reserve.slot_taken");
+            return BookResult.SLOT_TAKEN;
+        }
+        searchCache.onDateChanged(location, d);
+        searchCache.onStockChanged(location, vaccineName, -1);
+        return BookResult.BOOKED;
+    }
+
+    private static void reserveGroup(Session session, Arguments args) {
+        // reserve_group <date> <vaccine> <patient>...
+        // one appointment per listed patient, all on the same date
+        Patient currentPatient = session.getCurrentPatient();
         if (currentPatient == null) {
             System.out.println("Please login as a patient first!");
             return;
         }
+        Date d = args.getDate(0);
+        String vaccineName = args.getString(1);
+        List<String> patients = new ArrayList<>();
+        for (int i = 2; i < args.size(); i++) {
+            patients.add(args.getString(i));
+        }
+        if (patients.size() > MAX_MULTI_BOOKING) {
+            System.out.println("At most " + MAX_MULTI_BOOKING + " appointments can be booked at once.");
+            return;
+        }
+        Set<String> distinct = new HashSet<>();
+        for (String patient : patients) {
+            if (!distinct.add(patient.toLowerCase(Locale.ROOT))) {
+                System.out.println("Invalid input");
+                return;
+            }
+        }
+        reserveAll(patients, Collections.nCopies(patients.size(), d), vaccineName, session.getLocation());
+    }
 
-        // Check for correct number of tokens
-        if (tokens.length != 3) {
+    private static void reserveSeries(Session session, Arguments args) {
+        // reserve_series <date> <vaccine> <doses> <interval_days>
+        // one appointment per dose for the current patient, interval_days apart
+        Patient currentPatient = session.getCurrentPatient();
+        if (currentPatient == null) {
+            System.out.println("Please login as a patient first!");
+            return;
+        }
+        Date d = args.getDate(0);
+        String vaccineName = args.getString(1);
+        int doses = args.getInt(2);
+        int intervalDays = args.getInt(3);
+        if (doses < 1 || doses > MAX_MULTI_BOOKING || intervalDays < 1) {
             System.out.println("Invalid input");
             return;
         }
+        List<Date> dates = new ArrayList<>();
+        for (int i = 0; i < doses; i++) {
+            dates.add(Date.valueOf(d.toLocalDate().plusDays((long) i * intervalDays)));
+        }
+        reserveAll(Collections.nCopies(doses, currentPatient.getUsername()), dates, vaccineName, session.getLocation());
+    }
 
-        String date = tokens[1];
-        String vaccineName = tokens[2];
+    /**
+     * Book patients.get(i) on dates.get(i) at location for every i, all or nothing. The patients, the free
+     * caregivers for every date and the doses are each checked with one query, and the appointments are
+     * written with one batch in one transaction (one per shard when the dates span several).
+     * Group bookings always go to the database directly, even with a journal, since the journal can only
+     * make single bookings durable one at a time; slots pending in the journal or held are still skipped.
+     */
+    private static void reserveAll(List<String> patients, List<Date> dates, String vaccineName, String location) {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
+        ShardedConnections shards = new ShardedConnections(con);
 
         try {
-            // Convert the date string to a Date object
-            Date d = Date.valueOf(date);
+            // check 1: every patient exists, use the names as stored
+            Map<String, String> storedNames = findPatients(patients, con);
+            for (String patient : patients) {
+                if (!storedNames.containsKey(patient.toLowerCase(Locale.ROOT))) {
+                    System.out.println("Patient " + patient + " not found.");
+                    return;
+                }
+            }
 
-            // Check if the vaccine is available
-            if (!isVaccineAvailable(vaccineName, con)) {
+            // check 2: enough doses for all of them
+            if (availableDoses(location, vaccineName, con) < patients.size()) {
                 System.out.println("Vaccine not available.");
                 return;
             }
 
-            // Find an available caregiver
-            String caregiver = findAvailableCaregiver(d, con);
-            if (caregiver == null) {
-                System.out.println("No caregivers available on this date.");
+            // check 3: a different free caregiver for every appointment on the same date
+            Map<LocalDate, List<String>> free = findAvailableCaregivers(dates, location, shards);
+            List<Appointment> appointments = new ArrayList<>();
+            for (int i = 0; i < patients.size(); i++) {
+                List<String> caregivers = free.get(dates.get(i).toLocalDate());
+                if (caregivers == null || caregivers.isEmpty()) {
+                    System.out.println("No caregivers available on " + dates.get(i) + ".");
+                    return;
+                }
+                appointments.add(new Appointment.AppointmentBuilder(dates.get(i), caregivers.remove(0),
+                        storedNames.get(patients.get(i).toLowerCase(Locale.ROOT)), vaccineName, location).build());
+            }
+
+            if (!Appointment.saveAllToDB(shards, appointments)) {
+                System.out.println("Vaccine not available.");
                 return;
             }
+            Metrics.add("reserve.multi.appointments", appointments.size());
+            for (Appointment appointment : appointments) {
+                searchCache.onDateChanged(location, appointment.getDate());
+                searchCache.onStockChanged(location, vaccineName, -1);
+                System.out.println("Appointment reserved for " + appointment.getPatientUsername() + " with " + appointment.getCaregiverUsername() + " on " + appointment.getDate() + " for " + vaccineName + " vaccine.");
+            }
+        } catch (SQLException e) {
+            shards.rollback();
+            System.out.println("Error occurred when reserving appointment");
+            Log.error("Error occurred when reserving appointment", e);
+        } finally {
+            shards.close();
+            cm.closeConnection();
+        }
+    }
+
+    // lower-cased username -> username as stored, for the patients that exist
+    private static Map<String, String> findPatients(List<String> usernames, Connection con) throws SQLException {
+        String query = "SELECT Username FROM Patients WHERE Username IN (" + placeholders(usernames.size()) + ")";
+        PreparedStatement statement = con.prepareStatement(query);
+        for (int i = 0; i < usernames.size(); i++) {
+            statement.setString(i + 1, usernames.get(i));
+        }
+        ResultSet resultSet = statement.executeQuery();
+        Map<String, String> found = new HashMap<>();
+        while (resultSet.next()) {
+            found.put(resultSet.getString(1).toLowerCase(Locale.ROOT), resultSet.getString(1));
+        }
+        return found;
+    }
+
+    // caregivers at location that are free on each of the dates, in one query per shard
+    private static Map<LocalDate, List<String>> findAvailableCaregivers(List<Date> dates, String location,
+                                                                        ShardedConnections shards)
+            throws SQLException {
+        Map<Integer, List<Date>> datesByShard = new TreeMap<>();
+        for (Date d : dates) {
+            datesByShard.computeIfAbsent(ConnectionManager.shardOf(d), k -> new ArrayList<>()).add(d);
+        }
+        Map<LocalDate, List<String>> free = new HashMap<>();
+        for (Map.Entry<Integer, List<Date>> shard : datesByShard.entrySet()) {
+            List<Date> shardDates = shard.getValue();
+            String query = "SELECT a.Time, a.Username FROM Availabilities a " +
+                    "WHERE a.Time IN (" + placeholders(shardDates.size()) + ") AND a.Location = ? " +
+                    "AND NOT EXISTS (SELECT 1 FROM Appointment ap " +
+                    "WHERE ap.AppointmentDate = a.Time AND ap.CaregiverUsername = a.Username) " +
+                    "ORDER BY a.Time, a.Username";
+            PreparedStatement statement = shards.forShard(shard.getKey()).prepareStatement(query);
+            for (int i = 0; i < shardDates.size(); i++) {
+                statement.setDate(i + 1, shardDates.get(i));
+            }
+            statement.setString(shardDates.size() + 1, location);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                Date d = resultSet.getDate(1);
+                String caregiver = resultSet.getString(2);
+                if ((journal == null || !journal.isPendingBooked(caregiver, d)) && !holds.isHeld(caregiver, d)) {
+                    free.computeIfAbsent(d.toLocalDate(), k -> new ArrayList<>()).add(caregiver);
+                }
+            }
+        }
+        return free;
+    }
 
-            // Create an appointment
-            createAppointment(currentPatient.getUsername(), caregiver, d, vaccineName, con);
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
 
-            // Update vaccine doses
-            updateVaccineDoses(vaccineName, -1, con);  // assuming each reservation uses one dose
+    private static void hold(Session session, Arguments args) {
+        // hold <date> <vaccine>
+        // same checks as reserve, but the slot and dose are only set aside until confirm, release or expiry
+        Patient currentPatient = session.getCurrentPatient();
+        if (currentPatient == null) {
+            System.out.println("Please login as a patient first!");
+            return;
+        }
 
-            System.out.println("Appointment reserved for " + currentPatient.getUsername() + " with " + caregiver + " on " + date + " for " + vaccineName + " vaccine.");
+        Date d = args.getDate(0);
+        String vaccineName = args.getString(1);
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        ShardedConnections shards = new ShardedConnections(con);
 
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+        try {
+            // the session's clinic first, then the nearest others
+            List<String> sites = Collections.singletonList(session.getLocation());
+            boolean vaccineFound = false;
+            boolean outOfDoses = false;
+            for (int i = 0; i < sites.size(); i++) {
+                String site = sites.get(i);
+                int stock = stockDoses(site, vaccineName, con);
+                if (stock - holds.heldDoses(site, vaccineName) > 0) {
+                    vaccineFound = true;
+                    String caregiver = findAvailableCaregiver(d, site, shards);
+                    // the dose is checked again against the other holds while the hold is made
+                    HoldManager.Hold hold = caregiver == null ? null
+                            : holds.hold(currentPatient.getUsername(), caregiver, d, vaccineName, site, stock);
+                    outOfDoses |= caregiver != null && hold == null
+                            && stock - holds.heldDoses(site, vaccineName) <= 0;
+                    if (hold != null) {
+                        System.out.println("Hold " + hold.getHoldId() + ": " + caregiver + " on " + d + " for " +
+                                vaccineName + " vaccine" + atSite(site, session) + ", confirm within " +
+                                holds.getTtlMillis() / 1000 + " seconds.");
+                        return;
+                    }
+                }
+                if (i == 0) {
+                    sites = withNearestSites(site, con);
+                }
+            }
+            if (outOfDoses) {
+                System.out.println("Not enough doses left.");
+            } else {
+                System.out.println(vaccineFound ? "No caregivers available on this date." : "Vaccine not available.");
+            }
         } catch (SQLException e) {
+            System.out.println("Error occurred when holding appointment");
+            Log.error("Error occurred when holding appointment", e);
+        } finally {
+            shards.close();
+            cm.closeConnection();
+        }
+    }
+
+    private static void confirm(Session session, Arguments args) {
+        // confirm <hold_id>
+        Patient currentPatient = session.getCurrentPatient();
+        if (currentPatient == null) {
+            System.out.println("Please login as a patient first!");
+            return;
+        }
+        HoldManager.Hold hold = holds.claim(args.getInt(0), currentPatient.getUsername());
+        if (hold == null) {
+            System.out.println("Hold not found, it may have expired.");
+            return;
+        }
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        ShardedConnections shards = new ShardedConnections(con);
+        try {
+            // the slot and dose were held on this instance, but another instance may have sold the dose
+            // the claimed hold still counts among the held doses until finish, but its dose is this booking's
+            int stock = databaseDoses(hold.getLocation(), hold.getVaccine(), con)
+                    - (holds.heldDoses(hold.getLocation(), hold.getVaccine()) - 1);
+            BookResult result = book(currentPatient.getUsername(), hold.getCaregiver(), hold.getDate(),
+                    hold.getVaccine(), hold.getLocation(), stock, shards);
+            if (result != BookResult.BOOKED) {
+                System.out.println(result == BookResult.NO_DOSES ? "Not enough doses left."
+                        : "No caregivers available on this date.");
+                return;
+            }
+            Metrics.increment("holds.confirmed");
+            System.out.println("Appointment reserved for " + currentPatient.getUsername() + " with " + hold.getCaregiver() + " on " + hold.getDate() + " for " + hold.getVaccine() + " vaccine" + atSite(hold.getLocation(), session) + ".");
+        } catch (SQLException e) {
+            shards.rollback();
             System.out.println("Error occurred when reserving appointment");
-            e.printStackTrace();
+            Log.error("Error occurred when reserving appointment", e);
+        } catch (InterruptedException | IllegalStateException | IllegalArgumentException e) {
+            System.out.println("Error occurred when reserving appointment");
+            Log.error("Error occurred when reserving appointment", e);
         } finally {
+            holds.finish(hold);
+            shards.close();
             cm.closeConnection();
         }
     }
 
-    // helper functions for reserve to check if a vaccine is available
-    private static boolean isVaccineAvailable(String vaccineName, Connection con) throws SQLException {
-        String query = "SELECT Doses FROM Vaccines WHERE Name = ?";
+    private static void release(Session session, Arguments args) {
+        // release <hold_id>
+        Patient currentPatient = session.getCurrentPatient();
+        if (currentPatient == null) {
+            System.out.println("Please login as a patient first!");
+            return;
+        }
+        if (holds.release(args.getInt(0), currentPatient.getUsername())) {
+            System.out.println("Hold released.");
+        } else {
+            System.out.println("Hold not found, it may have expired.");
+        }
+    }
+
+    // helper functions for reserve to check if a vaccine is available at a location
+    private static boolean isVaccineAvailable(String location, String vaccineName, Connection con) throws SQLException {
+        return availableDoses(location, vaccineName, con) > 0;
+    }
+
+    private static int availableDoses(String location, String vaccineName, Connection con) throws SQLException {
+        // less the doses set aside by holds
+        return stockDoses(location, vaccineName, con) - holds.heldDoses(location, vaccineName);
+    }
+
+    // doses in the database and the journal, not counting holds
+    private static int stockDoses(String location, String vaccineName, Connection con) throws SQLException {
+        int doses = databaseDoses(location, vaccineName, con);
+        // count changes that are journaled but not in the database yet
+        if (journal != null) {
+            doses += journal.pendingDoseDelta(location, vaccineName);
+        }
+        return doses;
+    }
+
+    // doses in the database only
+    private static int databaseDoses(String location, String vaccineName, Connection con) throws SQLException {
+        String query = "SELECT Doses FROM Vaccines WHERE Location = ? AND Name = ?";
         PreparedStatement statement = con.prepareStatement(query);
-        statement.setString(1, vaccineName);
+        statement.setString(1, location);
+        statement.setString(2, vaccineName);
         ResultSet resultSet = statement.executeQuery();
 
+        int doses = 0;
         if (resultSet.next()) {
-            int doses = resultSet.getInt("Doses");
-            return doses > 0;
+            doses = resultSet.getInt("Doses");
         }
-
-        return false;
+        return doses;
     }
 
-    // helper function for reserve to find an available caregiver
-    private static String findAvailableCaregiver(Date d, Connection con) throws SQLException {
+    // helper function for reserve to find an available caregiver at a location
+    private static String findAvailableCaregiver(Date d, String location, ShardedConnections shards)
+            throws SQLException {
 
         // Get the caregivers that are available for the date along with all the vaccine information
         // making sure that the caregiver is not already booked for that date
-        String query = "SELECT Username FROM Availabilities WHERE Time = ? " +
+        String query = "SELECT Username FROM Availabilities WHERE Time = ? AND Location = ? " +
                 "AND Username NOT IN (SELECT CaregiverUsername FROM Appointment WHERE AppointmentDate = ?)";
-        PreparedStatement statement = con.prepareStatement(query);
+        PreparedStatement statement = shards.forDate(d).prepareStatement(query);
         statement.setDate(1, d); // set the date for the first ? in the query
-        statement.setDate(2, d); // set the date for the second ? in the query
+        statement.setString(2, location);
+        statement.setDate(3, d); // set the date for the last ? in the query
         ResultSet resultSet = statement.executeQuery();
 
-        if (resultSet.next()) {
-            return resultSet.getString("Username");
+        while (resultSet.next()) {
+            String caregiver = resultSet.getString("Username");
+            // skip caregivers whose booking for the date is journaled but not in the database yet, or held
+            if ((journal == null || !journal.isPendingBooked(caregiver, d)) && !holds.isHeld(caregiver, d)) {
+                return caregiver;
+            }
         }
 
         return null;
     } // testPatient 12345678Upperlower!
 
-    // helper function for reserve to create an appointment
-    private static void createAppointment(String patientUsername, String caregiverUsername, Date date, String vaccineName, Connection con) throws SQLException {
-        String insertAppointment = "INSERT INTO Appointment (AppointmentDate, CaregiverUsername, PatientUsername, VaccineName) VALUES (?, ?, ?, ?)";
-        PreparedStatement statement = con.prepareStatement(insertAppointment);
-        statement.setDate(1, date);
-        statement.setString(2, caregiverUsername);
-        statement.setString(3, patientUsername);
-        statement.setString(4, vaccineName);
-        statement.executeUpdate();
-    }
-
-    // helper function for reserve to update the vaccine doses
-    private static void updateVaccineDoses(String vaccineName, int doseChange, Connection con) throws SQLException {
-        String updateDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
-        PreparedStatement statement = con.prepareStatement(updateDoses);
-        statement.setInt(1, doseChange);
-        statement.setString(2, vaccineName);
-        statement.executeUpdate();
-    }
-
-    private static void uploadAvailability(String[] tokens) {
+    private static void uploadAvailability(Session session, Arguments args) {
         // upload_availability <date>
         // check 1: check if the current logged-in user is a caregiver
+        Caregiver currentCaregiver = session.getCurrentCaregiver();
         if (currentCaregiver == null) {
             System.out.println("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
-            return;
-        }
-        String date = tokens[1];
+        // check 2: the date is validated by the registry
+        Date d = args.getDate(0);
+        // the caregiver works at the session's clinic that day
+        String location = session.getLocation();
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
+            if (journal != null) {
+                journal.appendAndWait(BookingEvent.availability(currentCaregiver.getUsername(), location, d));
+            } else {
+                currentCaregiver.uploadAvailability(d, location);
+                searchCache.onDateChanged(location, d);
+            }
             System.out.println("Availability uploaded!");
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
-        } catch (SQLException e) {
+        } catch (SQLException | InterruptedException | IllegalStateException | IllegalArgumentException e) {
             System.out.println("Error occurred when uploading availability");
-            e.printStackTrace();
+            Log.error("Error occurred when uploading availability", e);
         }
     }
 
-    private static void cancel(String[] tokens) {
-        // TODO: Extra credit
+    private static void cancel(Session session, Arguments args) {
+        // cancel <appointment_id>
+        // check 1: someone has to be logged in, and only their own appointments can be cancelled
+        String username = session.getUsername();
+        if (username == null) {
+            System.out.println("Please login first!");
+            return;
+        }
+        int appointmentId = args.getInt(0);
+        try {
+            Appointment appointment = new Appointment.AppointmentGetter(appointmentId).get();
+            if (appointment == null || !(username.equalsIgnoreCase(appointment.getPatientUsername())
+                    || username.equalsIgnoreCase(appointment.getCaregiverUsername()))) {
+                System.out.println("Appointment not found.");
+                return;
+            }
+            if (journal != null) {
+                journal.appendAndWait(BookingEvent.cancel(appointmentId, appointment.getCaregiverUsername(),
+                        appointment.getVaccineName(), appointment.getLocation(), appointment.getDate()));
+            } else {
+                // the dose goes back to the clinic the appointment was at
+                if (appointment.cancel()) {
+                    searchCache.onDateChanged(appointment.getLocation(), appointment.getDate());
+                    searchCache.onStockChanged(appointment.getLocation(), appointment.getVaccineName(), 1);
+                }
+            }
+            System.out.println("Appointment " + appointmentId + " cancelled.");
+        } catch (SQLException | InterruptedException | IllegalStateException | IllegalArgumentException e) {
+            System.out.println("Error occurred when cancelling appointment");
+            Log.error("Error occurred when cancelling appointment", e);
+        }
     }
 
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, Arguments args) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
+        if (session.getCurrentCaregiver() == null) {
             System.out.println("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
-        if (tokens.length != 3) {
+        // check 2: the vaccine name and number of doses are validated by the registry
+        String vaccineName = args.getString(0);
+        int doses = args.getInt(1);
+        if (doses <= 0) {
             System.out.println("Please try again!");
             return;
         }
-        String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
+        // to the stock of the session's clinic
+        String location = session.getLocation();
+        if (journal != null) {
+            // the replicator adds the doses, creating the vaccine if it doesn't exist yet
+            try {
+                journal.appendAndWait(BookingEvent.addDoses(location, vaccineName, doses));
+                System.out.println("Doses updated!");
+            } catch (InterruptedException | IllegalStateException | IllegalArgumentException e) {
+                System.out.println("Error occurred when adding doses");
+                Log.error("Error occurred when adding doses", e);
+            }
+            return;
+        }
         Vaccine vaccine = null;
         try {
-            vaccine = new Vaccine.VaccineGetter(vaccineName).get();
+            vaccine = new Vaccine.VaccineGetter(location, vaccineName).get();
         } catch (SQLException e) {
             System.out.println("Error occurred when adding doses");
-            e.printStackTrace();
+            Log.error("Error occurred when adding doses", e);
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
         //          table
         if (vaccine == null) {
             try {
-                vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
+                vaccine = new Vaccine.VaccineBuilder(location, vaccineName, doses).build();
                 vaccine.saveToDB();
+                searchCache.onStockChanged(location, vaccineName, doses);
             } catch (SQLException e) {
                 System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                Log.error("Error occurred when adding doses", e);
             }
         } else {
             // if the vaccine is not null, meaning that the vaccine already exists in our table
             try {
                 vaccine.increaseAvailableDoses(doses);
+                searchCache.onStockChanged(location, vaccineName, doses);
             } catch (SQLException e) {
                 System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+                Log.error("Error occurred when adding doses", e);
             }
         }
         System.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
+    private static void showAppointments(Session session, Arguments args) {
+        Patient currentPatient = session.getCurrentPatient();
+        Caregiver currentCaregiver = session.getCurrentCaregiver();
         if (currentCaregiver == null && currentPatient == null) {
             System.out.println("Please login first!");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        String query;
+        if (currentPatient != null) {
+            query = "SELECT a.AppointmentID, a.VaccineName, a.AppointmentDate, c.Username, a.Location " +
+                    "FROM Appointment a " +
+                    "JOIN Caregivers c ON a.CaregiverUsername = c.Username " +
+                    "WHERE a.PatientUsername = ? " +
+                    "ORDER BY a.AppointmentID";
+        } else {
+            query = "SELECT a.AppointmentID, a.VaccineName, a.AppointmentDate, p.Username, a.Location " +
+                    "FROM Appointment a " +
+                    "JOIN Patients p ON a.PatientUsername = p.Username " +
+                    "WHERE a.CaregiverUsername = ? " +
+                    "ORDER BY a.AppointmentID";
+        }
+        if (ConnectionManager.isSharded()) {
+            // the user tables are on the primary, the shards only have the appointments
+            query = currentPatient != null
+                    ? "SELECT AppointmentID, VaccineName, AppointmentDate, CaregiverUsername, Location " +
+                      "FROM Appointment WHERE PatientUsername = ?"
+                    : "SELECT AppointmentID, VaccineName, AppointmentDate, PatientUsername, Location " +
+                      "FROM Appointment WHERE CaregiverUsername = ?";
+        }
+        String username = currentPatient != null ? currentPatient.getUsername() : currentCaregiver.getUsername();
 
         try {
-            String query;
-            if (currentPatient != null) {
-                query = "SELECT a.AppointmentID, a.VaccineName, a.AppointmentDate, c.Username " +
-                        "FROM Appointment a " +
-                        "JOIN Caregivers c ON a.CaregiverUsername = c.Username " +
-                        "WHERE a.PatientUsername = ? " +
-                        "ORDER BY a.AppointmentID";
-            } else {
-                query = "SELECT a.AppointmentID, a.VaccineName, a.AppointmentDate, p.Username " +
-                        "FROM Appointment a " +
-                        "JOIN Patients p ON a.PatientUsername = p.Username " +
-                        "WHERE a.CaregiverUsername = ? " +
-                        "ORDER BY a.AppointmentID";
-            }
+            // read-only, may be served by the replica, and hedged if it is slow
+            String appointmentsQuery = query;
+            Collection<String> lines = HedgedRead.run(shards -> loadAppointmentLines(appointmentsQuery, username,
+                    shards));
 
-            PreparedStatement statement = con.prepareStatement(query);
-
-            if (currentPatient != null) {
-                statement.setString(1, currentPatient.getUsername());
-            } else {
-                statement.setString(1, currentCaregiver.getUsername());
-            }
-
-            ResultSet resultSet = statement.executeQuery();
-
-            if (!resultSet.isBeforeFirst()) {
+            if (lines.isEmpty()) {
                 System.out.println("No appointments found.");
                 return;
             }
+            for (String line : lines) {
+                System.out.println(line);
+            }
+
+        } catch (SQLException e) {
+            System.out.println("Error occurred when retrieving appointments.");
+            Log.error("Error occurred when retrieving appointments.", e);
+        }
+    }
 
+    // the lines show_appointments prints, collected from every shard in id order
+    private static Collection<String> loadAppointmentLines(String query, String username, ShardedConnections shards)
+            throws SQLException {
+        TreeMap<Integer, String> lines = new TreeMap<>();
+        for (int shard = 0; shard < ConnectionManager.shardCount(); shard++) {
+            PreparedStatement statement = shards.forShard(shard).prepareStatement(query);
+            statement.setString(1, username);
+
+            ResultSet resultSet = statement.executeQuery();
             while (resultSet.next()) {
-                int appointmentID = resultSet.getInt(1);
+                int appointmentID = Appointment.toGlobalId(resultSet.getInt(1), shard);
                 String vaccineName = resultSet.getString(2);
                 Date appointmentDate = resultSet.getDate(3);
                 String appointmentUsername = resultSet.getString(4);
+                String location = resultSet.getString(5);
 
-                System.out.println("Appointment ID: " + appointmentID +
+                // the clinic is only worth showing once there is more than one
+                lines.put(appointmentID, "Appointment ID: " + appointmentID +
                         ", Vaccine Name: " + vaccineName +
                         ", Appointment Date: " + appointmentDate +
-                        ", Username: " + appointmentUsername);
+                        ", Username: " + appointmentUsername +
+                        (Location.DEFAULT.equals(location) ? "" : ", Location: " + location));
             }
+        }
+        return lines.values();
+    }
 
+    private static void exportAppointments(Session session, Arguments args) {
+        // export_appointments <from_date> <to_date> <csv|columnar> <file> [overwrite]
+        // check 1: the extract is sent by clinic staff, so a caregiver has to be logged in
+        if (session.getCurrentCaregiver() == null) {
+            System.out.println("Please login as a caregiver first!");
+            return;
+        }
+        Date from = args.getDate(0);
+        Date to = args.getDate(1);
+        AppointmentExporter.Format format;
+        try {
+            format = AppointmentExporter.Format.valueOf(args.getString(2).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid input");
+            return;
+        }
+        if (from.after(to)) {
+            System.out.println("Invalid input");
+            return;
+        }
+        // an existing file is only replaced when asked to
+        boolean overwrite = args.size() == 5 && "overwrite".equalsIgnoreCase(args.getString(4));
+        if (args.size() > 4 && !overwrite) {
+            System.out.println("Invalid input");
+            return;
+        }
+        // the file name comes from the user, keep it inside ExportDir
+        Path exportDir = Paths.get(Util.getenvOrDefault("ExportDir", "exports")).toAbsolutePath().normalize();
+        Path path;
+        try {
+            path = AppointmentExporter.resolve(exportDir, args.getString(3));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Please give a file name inside the export directory.");
+            return;
+        }
+
+        // read-only, may be served by the replica
+        ConnectionManager cm = ConnectionManager.forReads();
+        Connection con = cm.createConnection();
+        ShardedConnections shards = new ShardedConnections(con);
+        try {
+            long rows = AppointmentExporter.export(shards, from, to, exportDir, path, format, overwrite,
+                    Integer.parseInt(Util.getenvOrDefault("ExportFetchSize", "10000")));
+            System.out.println("Exported " + rows + " appointments to " + path);
+        } catch (FileAlreadyExistsException e) {
+            System.out.println("File already exists, add overwrite to replace it.");
+        } catch (SQLException | IOException e) {
+            System.out.println("Error occurred when exporting appointments");
+            Log.error("Error occurred when exporting appointments", e);
+        } finally {
+            shards.close();
+            cm.closeConnection();
+        }
+    }
+
+    private static void report(Session session, Arguments args) {
+        // report <from_date> <to_date>
+        if (session.getCurrentCaregiver() == null) {
+            System.out.println("Please login as a caregiver first!");
+            return;
+        }
+        Date from = args.getDate(0);
+        Date to = args.getDate(1);
+        if (from.after(to)) {
+            System.out.println("Invalid input");
+            return;
+        }
+        // read-only, may be served by the replica
+        ConnectionManager cm = ConnectionManager.forReads();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            System.out.println("Error occurred when building the report");
+            cm.closeConnection();
+            return;
+        }
+        ShardedConnections shards = new ShardedConnections(con);
+        try {
+            UtilizationReport.load(shards, from, to,
+                    Double.parseDouble(Util.getenvOrDefault("ReportNoShowRate", "0.1"))).print();
         } catch (SQLException e) {
-            System.out.println("Error occurred when retrieving appointments.");
-            e.printStackTrace();
+            System.out.println("Error occurred when building the report");
+            Log.error("Error occurred when building the report", e);
         } finally {
+            shards.close();
             cm.closeConnection();
         }
     }
 
-    private static void logout(String[] tokens) {
+    private static void sendReminders(Session session, Arguments args) {
+        // send_reminders <date>
+        // normally run by ReminderTime, this is for catching up on a missed or failed day
+        if (session.getCurrentCaregiver() == null) {
+            System.out.println("Please login as a caregiver first!");
+            return;
+        }
+        Date d = args.getDate(0);
         try {
-            if (currentCaregiver != null) {
-                currentCaregiver = null;
-            } else if (currentPatient != null) {
-                currentPatient = null;
+            long written = ReminderJob.run(d, Integer.parseInt(Util.getenvOrDefault("ReminderBatchSize", "500")),
+                    Integer.parseInt(Util.getenvOrDefault("ReminderFetchSize", "10000")));
+            if (written < 0) {
+                System.out.println("Reminders for " + d + " were already sent.");
+            } else {
+                System.out.println("Wrote " + written + " reminders for " + d + ".");
+            }
+        } catch (SQLException e) {
+            System.out.println("Error occurred when sending reminders");
+            Log.error("Error occurred when sending reminders", e);
+        }
+    }
+
+    private static void logout(Session session, Arguments args) {
+        try {
+            if (session.getCurrentCaregiver() != null) {
+                session.setCurrentCaregiver(null);
+            } else if (session.getCurrentPatient() != null) {
+                session.setCurrentPatient(null);
             } else {
                 System.out.println("Please login first!");
                 return;
             }
+            session.setLocation(Location.DEFAULT);
             System.out.println("Successfully logged out!");
         } catch (Exception e) {
             System.out.println("Please try again!");
         }
     }
 
+    private static void stats(Session session, Arguments args) {
+        for (Map.Entry<String, Long> counter : Metrics.snapshot().entrySet()) {
+            System.out.println(counter.getKey() + ": " + counter.getValue());
+        }
+        System.out.printf("bloom.patients.false_positive_rate: %.4f%n",
+                Metrics.ratio("bloom.patients.false_positive", "bloom.patients.positive"));
+        System.out.printf("bloom.caregivers.false_positive_rate: %.4f%n",
+                Metrics.ratio("bloom.caregivers.false_positive", "bloom.caregivers.positive"));
+    }
+
+    private static void quit(Session session, Arguments args) {
+        System.out.println("Bye!");
+        session.end();
+    }
+
     /**
      * Extra credit: check if a password is strong
      * @param password
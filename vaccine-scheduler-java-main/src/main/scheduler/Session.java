@@ -0,0 +1,66 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Location;
+import scheduler.model.Patient;
+
+public class Session {
+
+    // objects to keep track of the currently logged-in user
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in at a time
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+
+    // the clinic searches and bookings are made at, a caregiver's own clinic once they log in
+    private String location = Location.DEFAULT;
+
+    // set to false by the quit command
+    private boolean active = true;
+
+    public Caregiver getCurrentCaregiver() {
+        return currentCaregiver;
+    }
+
+    public Patient getCurrentPatient() {
+        return currentPatient;
+    }
+
+    public void setCurrentCaregiver(Caregiver caregiver) {
+        this.currentCaregiver = caregiver;
+    }
+
+    public void setCurrentPatient(Patient patient) {
+        this.currentPatient = patient;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public boolean isLoggedIn() {
+        return currentCaregiver != null || currentPatient != null;
+    }
+
+    // username of whoever is logged in, or null
+    public String getUsername() {
+        if (currentCaregiver != null) {
+            return currentCaregiver.getUsername();
+        } else if (currentPatient != null) {
+            return currentPatient.getUsername();
+        }
+        return null;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void end() {
+        this.active = false;
+    }
+}
@@ -0,0 +1,135 @@
+package scheduler.changes;
+
+import java.sql.Date;
+
+/**
+ * One row of the ChangeLog table. Which fields are set depends on the kind:
+ *   PATIENT_CREATED        patient
+ *   CAREGIVER_CREATED      caregiver
+ *   CAREGIVER_LOCATION     caregiver, location (the caregiver's usual clinic)
+ *   AVAILABILITY           caregiver, date, location
+ *   DOSES                  location, vaccine, amount (doses added, negative if taken)
+ *   APPOINTMENT_CREATED    appointment id, date, caregiver, patient, vaccine, location (took one dose there)
+ *   APPOINTMENT_CANCELLED  appointment id, date, caregiver, patient, vaccine, location (gave one dose back)
+ */
+public class Change {
+
+    public enum Kind {
+        PATIENT_CREATED, CAREGIVER_CREATED, CAREGIVER_LOCATION, AVAILABILITY, DOSES, APPOINTMENT_CREATED,
+        APPOINTMENT_CANCELLED
+    }
+
+    private final long changeId;
+    private final String nodeId;
+    private final Kind kind;
+    private final int appointmentId;
+    private final Date date;
+    private final String caregiver;
+    private final String patient;
+    private final String vaccine;
+    private final String location;
+    private final int amount;
+
+    Change(long changeId, String nodeId, Kind kind, int appointmentId, Date date, String caregiver,
+           String patient, String vaccine, String location, int amount) {
+        this.changeId = changeId;
+        this.nodeId = nodeId;
+        this.kind = kind;
+        this.appointmentId = appointmentId;
+        this.date = date;
+        this.caregiver = caregiver;
+        this.patient = patient;
+        this.vaccine = vaccine;
+        this.location = location;
+        this.amount = amount;
+    }
+
+    public static Change patientCreated(String username) {
+        return new Change(0, null, Kind.PATIENT_CREATED, 0, null, null, username, null, null, 0);
+    }
+
+    public static Change caregiverCreated(String username) {
+        return new Change(0, null, Kind.CAREGIVER_CREATED, 0, null, username, null, null, null, 0);
+    }
+
+    public static Change caregiverLocation(String username, String location) {
+        return new Change(0, null, Kind.CAREGIVER_LOCATION, 0, null, username, null, null, location, 0);
+    }
+
+    public static Change availability(String caregiver, Date date, String location) {
+        return new Change(0, null, Kind.AVAILABILITY, 0, date, caregiver, null, null, location, 0);
+    }
+
+    public static Change doses(String location, String vaccine, int amount) {
+        return new Change(0, null, Kind.DOSES, 0, null, null, null, vaccine, location, amount);
+    }
+
+    public static Change appointmentCreated(int appointmentId, Date date, String caregiver, String patient,
+                                            String vaccine, String location) {
+        return new Change(0, null, Kind.APPOINTMENT_CREATED, appointmentId, date, caregiver, patient, vaccine,
+                location, 0);
+    }
+
+    public static Change appointmentCancelled(int appointmentId, Date date, String caregiver, String patient,
+                                              String vaccine, String location) {
+        return new Change(0, null, Kind.APPOINTMENT_CANCELLED, appointmentId, date, caregiver, patient, vaccine,
+                location, 0);
+    }
+
+    // Getters
+    public long getChangeId() {
+        return changeId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return "Change{" +
+                "changeId=" + changeId +
+                ", nodeId='" + nodeId + '\'' +
+                ", kind=" + kind +
+                ", appointmentId=" + appointmentId +
+                ", date=" + date +
+                ", caregiver='" + caregiver + '\'' +
+                ", patient='" + patient + '\'' +
+                ", vaccine='" + vaccine + '\'' +
+                ", location='" + location + '\'' +
+                ", amount=" + amount +
+                '}';
+    }
+}
@@ -0,0 +1,237 @@
+package scheduler.changes;
+
+import scheduler.db.ConnectionManager;
+import scheduler.log.Log;
+import scheduler.util.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Background thread that tails the ChangeLog table and hands every change made by another instance to a
+ * listener, so local caches are patched or invalidated at most about one poll interval after the change
+ * commits.
+ *
+ * The cursor is the highest ChangeID seen. IDs are assigned when a row is inserted but become visible when
+ * its transaction commits, so a lower ID can show up after a higher one was read. IDs skipped by the cursor
+ * are therefore asked for again on every poll for gapMillis, after which they are taken to be rolled back.
+ * The same holds when the feed starts: IDs missing among the rows of the last gapMillis may still commit,
+ * so they start out as gaps rather than being skipped.
+ * If the feed cannot keep up with its gaps (or was cut off from the database for longer than gapMillis)
+ * it calls onReset, which must drop whatever it cannot prove is current.
+ *
+ * With ShardURLs every shard has its own ChangeLog for the changes it stores, and its own feed.
+ */
+public class ChangeFeed implements Runnable {
+
+    private static final int MAX_GAPS = 500;
+    private static final long PRUNE_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    // -1 for the primary
+    private final int shard;
+    private final long pollMillis;
+    private final long gapMillis;
+    private final long retentionMillis;
+    private final Consumer<Change> listener;
+    private final Runnable onReset;
+    private long cursor = -1;
+    // ChangeIDs below the cursor not seen yet -> when they were first missed
+    private final Map<Long, Long> gaps = new LinkedHashMap<>();
+    private long lastSuccessMillis = System.currentTimeMillis();
+    private long lastPruneMillis = 0;
+    private ConnectionManager cm = null;
+    private Connection con = null;
+
+    private ChangeFeed(int shard, long pollMillis, long gapMillis, long retentionMillis, Consumer<Change> listener,
+                       Runnable onReset) {
+        this.shard = shard;
+        this.pollMillis = pollMillis;
+        this.gapMillis = gapMillis;
+        this.retentionMillis = retentionMillis;
+        this.listener = listener;
+        this.onReset = onReset;
+    }
+
+    /**
+     * Start tailing from the current end of the table; the caller's state must already include everything
+     * committed before this call. Changes still uncommitted at that point are delivered once they commit.
+     * @param shard the shard whose ChangeLog to tail, -1 for the primary's
+     * @param retentionMillis rows older than this are deleted, once an hour
+     */
+    public static Thread start(int shard, long pollMillis, long gapMillis, long retentionMillis,
+                               Consumer<Change> listener, Runnable onReset) {
+        ChangeFeed feed = new ChangeFeed(shard, pollMillis, gapMillis, retentionMillis, listener, onReset);
+        try {
+            feed.startFromEnd();
+        } catch (SQLException e) {
+            // start from the beginning of whatever is there once the database is back
+            Log.error("Error occurred when reading the change log", e);
+            feed.disconnect();
+        }
+        Thread thread = new Thread(feed, shard < 0 ? "change-feed" : "change-feed-" + shard);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Thread.sleep(pollMillis);
+                try {
+                    if (cursor < 0) {
+                        startFromEnd();
+                        onReset.run();
+                    }
+                    poll();
+                    if (System.currentTimeMillis() - lastPruneMillis > PRUNE_INTERVAL_MILLIS) {
+                        prune();
+                    }
+                } catch (SQLException e) {
+                    Metrics.increment("change_feed.errors");
+                    disconnect();
+                    Log.error("Error occurred when polling the change log", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            disconnect();
+        }
+    }
+
+    // put the cursor on the newest committed row, and every ID missing between it and the low-water mark
+    // (the newest row older than gapMillis, taken to be complete like any other gap) into gaps
+    private void startFromEnd() throws SQLException {
+        long now = System.currentTimeMillis();
+        PreparedStatement statement = connection().prepareStatement(
+                "SELECT COALESCE(MAX(ChangeID), 0) FROM ChangeLog WHERE ChangedAt < ?");
+        statement.setTimestamp(1, new Timestamp(now - gapMillis));
+        ResultSet resultSet = statement.executeQuery();
+        resultSet.next();
+        long lowWater = resultSet.getLong(1);
+
+        statement = connection().prepareStatement(
+                "SELECT ChangeID FROM ChangeLog WHERE ChangeID > ? ORDER BY ChangeID");
+        statement.setLong(1, lowWater);
+        resultSet = statement.executeQuery();
+        gaps.clear();
+        long end = lowWater;
+        while (resultSet.next()) {
+            long id = resultSet.getLong(1);
+            // one past MAX_GAPS is enough for poll() to reset
+            for (long missing = end + 1; missing < id && gaps.size() <= MAX_GAPS; missing++) {
+                gaps.put(missing, now);
+            }
+            end = id;
+        }
+        cursor = end;
+    }
+
+    private void poll() throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - lastSuccessMillis > gapMillis && !gaps.isEmpty()) {
+            // gaps may have been given up on while the database was unreachable
+            reset("change feed was disconnected for " + (now - lastSuccessMillis) + " ms");
+        }
+        for (Iterator<Map.Entry<Long, Long>> it = gaps.entrySet().iterator(); it.hasNext(); ) {
+            if (now - it.next().getValue() > gapMillis) {
+                it.remove();
+            }
+        }
+
+        StringBuilder query = new StringBuilder("SELECT ChangeID, NodeID, Kind, AppointmentID, ChangeDate, " +
+                "Caregiver, Patient, Vaccine, Location, Amount FROM ChangeLog WHERE ChangeID > ?");
+        if (!gaps.isEmpty()) {
+            query.append(" OR ChangeID IN (");
+            query.append(String.join(", ", Collections.nCopies(gaps.size(), "?")));
+            query.append(")");
+        }
+        query.append(" ORDER BY ChangeID");
+        PreparedStatement statement = connection().prepareStatement(query.toString());
+        statement.setLong(1, cursor);
+        int index = 2;
+        for (long gap : gaps.keySet()) {
+            statement.setLong(index++, gap);
+        }
+        ResultSet resultSet = statement.executeQuery();
+
+        List<Change> changes = new ArrayList<>();
+        while (resultSet.next()) {
+            changes.add(new Change(resultSet.getLong(1), resultSet.getString(2),
+                    Change.Kind.valueOf(resultSet.getString(3)), resultSet.getInt(4), resultSet.getDate(5),
+                    resultSet.getString(6), resultSet.getString(7), resultSet.getString(8), resultSet.getString(9),
+                    resultSet.getInt(10)));
+        }
+        lastSuccessMillis = now;
+
+        for (Change change : changes) {
+            long id = change.getChangeId();
+            if (id > cursor) {
+                if (id - cursor - 1 > MAX_GAPS) {
+                    // e.g. an identity jump after a database restart, too wide to track one by one
+                    reset("change log skipped " + (id - cursor - 1) + " ids");
+                } else {
+                    for (long missing = cursor + 1; missing < id; missing++) {
+                        gaps.put(missing, now);
+                    }
+                }
+                cursor = id;
+            } else {
+                gaps.remove(id);
+            }
+            if (!ChangeLog.getNodeId().equals(change.getNodeId())) {
+                listener.accept(change);
+                Metrics.increment("change_feed.applied");
+            }
+        }
+        if (gaps.size() > MAX_GAPS) {
+            reset(gaps.size() + " change log gaps outstanding");
+        }
+    }
+
+    private void reset(String reason) {
+        Log.error("Dropping cached data: " + reason, null);
+        Metrics.increment("change_feed.resets");
+        gaps.clear();
+        onReset.run();
+    }
+
+    private void prune() throws SQLException {
+        PreparedStatement statement = connection().prepareStatement("DELETE FROM ChangeLog WHERE ChangedAt < ?");
+        statement.setTimestamp(1, new Timestamp(System.currentTimeMillis() - retentionMillis));
+        Metrics.add("change_feed.pruned", statement.executeUpdate());
+        lastPruneMillis = System.currentTimeMillis();
+    }
+
+    private Connection connection() throws SQLException {
+        if (con == null) {
+            cm = shard < 0 ? new ConnectionManager() : ConnectionManager.forShard(shard);
+            con = cm.createConnection();
+            if (con == null) {
+                disconnect();
+                throw new SQLException();
+            }
+        }
+        return con;
+    }
+
+    private void disconnect() {
+        if (cm != null) {
+            cm.closeConnection();
+        }
+        cm = null;
+        con = null;
+    }
+}
@@ -0,0 +1,56 @@
+package scheduler.changes;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.UUID;
+
+/**
+ * Writes to the ChangeLog table, which lets several Scheduler instances share one database and still keep
+ * their in-memory caches correct: every change to users, availability, stock or appointments adds a row in
+ * the same transaction as the change itself, and each instance tails the table with a ChangeFeed.
+ *
+ * Only active when ChangeFeedMillis is set; a single instance has nothing to catch up with, so without it
+ * record() does nothing and no extra row is written.
+ */
+public class ChangeLog {
+
+    private static final boolean enabled = System.getenv("ChangeFeedMillis") != null;
+    // identifies this instance's rows, so its feed can skip changes it already applied itself
+    private static final String nodeId = UUID.randomUUID().toString();
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static String getNodeId() {
+        return nodeId;
+    }
+
+    // add a row for change, call inside the transaction that makes the change
+    public static void record(Connection con, Change change) throws SQLException {
+        if (!enabled) {
+            return;
+        }
+        String addChange = "INSERT INTO ChangeLog (NodeID, Kind, AppointmentID, ChangeDate, Caregiver, Patient, " +
+                "Vaccine, Location, Amount, ChangedAt) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        PreparedStatement statement = con.prepareStatement(addChange);
+        statement.setString(1, nodeId);
+        statement.setString(2, change.getKind().name());
+        statement.setInt(3, change.getAppointmentId());
+        if (change.getDate() != null) {
+            statement.setDate(4, change.getDate());
+        } else {
+            statement.setNull(4, Types.DATE);
+        }
+        statement.setString(5, change.getCaregiver());
+        statement.setString(6, change.getPatient());
+        statement.setString(7, change.getVaccine());
+        statement.setString(8, change.getLocation());
+        statement.setInt(9, change.getAmount());
+        statement.setTimestamp(10, new Timestamp(System.currentTimeMillis()));
+        statement.executeUpdate();
+    }
+}
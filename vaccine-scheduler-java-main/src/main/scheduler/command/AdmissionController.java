@@ -0,0 +1,98 @@
+package scheduler.command;
+
+import scheduler.Session;
+import scheduler.db.ConnectionManager;
+import scheduler.util.Metrics;
+import scheduler.util.TokenBucket;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether a command may run right now. A command is turned away, with a hint of when to retry,
+ * if its own token bucket or the bucket of the user issuing it is empty, or if it needs the database and
+ * every connection in the budget is already in use. Rejecting early keeps the database at the load it
+ * can actually serve instead of queueing more work than it can finish.
+ */
+class AdmissionController {
+
+    // per-user buckets that have refilled completely are dropped once the map grows past this
+    private static final int MAX_USER_BUCKETS = 100000;
+
+    // retry hint when the connection budget is exhausted
+    private static final long CONNECTION_RETRY_MILLIS = 100;
+
+    private final Map<String, TokenBucket> commandBuckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+
+    /**
+     * @return 0 if the command is admitted, otherwise the number of milliseconds after which to retry
+     */
+    long admit(CommandSpec spec, Session session, Arguments args) {
+        // a token taken from one bucket is given back when a later check turns the command away, so a
+        // rejected command costs nothing and one user hitting their own limit can't drain the shared bucket
+        TokenBucket commandBucket = null;
+        if (spec.getRateLimit() != null) {
+            commandBucket = commandBuckets.computeIfAbsent(spec.getName(), k -> spec.getRateLimit().newBucket());
+            long wait = commandBucket.tryAcquire();
+            if (wait > 0) {
+                return reject(spec, "rate", wait);
+            }
+        }
+
+        TokenBucket userBucket = null;
+        if (spec.getUserRateLimit() != null) {
+            String user = userOf(session, args);
+            if (user != null) {
+                if (userBuckets.size() > MAX_USER_BUCKETS) {
+                    pruneUserBuckets();
+                }
+                userBucket = userBuckets.computeIfAbsent(spec.getName() + " " + user,
+                        k -> spec.getUserRateLimit().newBucket());
+                long wait = userBucket.tryAcquire();
+                if (wait > 0) {
+                    release(commandBucket);
+                    return reject(spec, "user_rate", wait);
+                }
+            }
+        }
+
+        if (spec.usesDatabase() && ConnectionManager.availableConnections() <= 0) {
+            release(commandBucket);
+            release(userBucket);
+            return reject(spec, "connections", CONNECTION_RETRY_MILLIS);
+        }
+        return 0;
+    }
+
+    private static void release(TokenBucket bucket) {
+        if (bucket != null) {
+            bucket.release();
+        }
+    }
+
+    // the logged-in user, or for login and signup the username being used
+    private static String userOf(Session session, Arguments args) {
+        String user = session.getUsername();
+        if (user == null && args.size() > 0 && args.get(0) instanceof String) {
+            user = args.getString(0);
+        }
+        return user == null ? null : user.toLowerCase(Locale.ROOT);
+    }
+
+    private static long reject(CommandSpec spec, String reason, long retryMillis) {
+        Metrics.increment("admission.rejected." + reason + "." + spec.getName());
+        return retryMillis;
+    }
+
+    private void pruneUserBuckets() {
+        Iterator<TokenBucket> it = userBuckets.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isFull()) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package scheduler.command;
+
+import java.sql.Date;
+
+public enum ArgType {
+    STRING(null),
+    DATE("Please enter a valid date!"),
+    INT(null),
+    DOUBLE(null);
+
+    // message shown when a token does not parse, null to fall back to the command's own message
+    private final String invalidMessage;
+
+    ArgType(String invalidMessage) {
+        this.invalidMessage = invalidMessage;
+    }
+
+    public String getInvalidMessage() {
+        return invalidMessage;
+    }
+
+    // convert a raw token to the declared type, throws IllegalArgumentException if it does not parse
+    Object parse(String token) {
+        switch (this) {
+            case DATE:
+                return Date.valueOf(token);
+            case INT:
+                return Integer.parseInt(token);
+            case DOUBLE:
+                return Double.parseDouble(token);
+            default:
+                return token;
+        }
+    }
+}
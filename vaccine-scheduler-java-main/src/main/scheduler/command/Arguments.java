@@ -0,0 +1,38 @@
+package scheduler.command;
+
+import java.sql.Date;
+
+/**
+ * Arguments of a command, already converted to the types declared by its CommandSpec.
+ */
+public class Arguments {
+    private final Object[] values;
+
+    Arguments(Object[] values) {
+        this.values = values;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    Object get(int i) {
+        return values[i];
+    }
+
+    public String getString(int i) {
+        return (String) values[i];
+    }
+
+    public Date getDate(int i) {
+        return (Date) values[i];
+    }
+
+    public int getInt(int i) {
+        return (Integer) values[i];
+    }
+
+    public double getDouble(int i) {
+        return (Double) values[i];
+    }
+}
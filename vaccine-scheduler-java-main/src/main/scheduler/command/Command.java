@@ -0,0 +1,8 @@
+package scheduler.command;
+
+import scheduler.Session;
+
+@FunctionalInterface
+public interface Command {
+    void execute(Session session, Arguments args);
+}
@@ -0,0 +1,92 @@
+package scheduler.command;
+
+import scheduler.Session;
+import scheduler.log.Log;
+import scheduler.util.Deadline;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Maps command names to their specs. Every line typed by a user goes through dispatch(), which is the single
+ * place where a command is looked up, its arguments are validated and its handler is run.
+ */
+public class CommandRegistry {
+
+    // insertion order is kept so the help text lists commands in the order they were registered
+    private final Map<String, CommandSpec> commands = new LinkedHashMap<>();
+    private final AdmissionController admission = new AdmissionController();
+
+    public void register(CommandSpec spec) {
+        if (commands.putIfAbsent(spec.getName(), spec) != null) {
+            throw new IllegalArgumentException("Command already registered: " + spec.getName());
+        }
+    }
+
+    public CommandSpec get(String name) {
+        return commands.get(name);
+    }
+
+    public Collection<CommandSpec> getCommands() {
+        return commands.values();
+    }
+
+    public void dispatch(Session session, String line) {
+        long start = System.nanoTime();
+        String user = session.getUsername();
+        String[] tokens = Tokenizer.tokenize(line);
+        // check if input exists
+        if (tokens.length == 0) {
+            System.out.println("Please try again!");
+            return;
+        }
+        CommandSpec spec = commands.get(tokens[0]);
+        if (spec == null) {
+            System.out.println("Invalid operation name!");
+            audit(null, session, user, "invalid_operation", start);
+            return;
+        }
+
+        // validate the arguments before the handler gets a chance to touch the database
+        Arguments args;
+        try {
+            args = spec.parse(tokens);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            audit(spec, session, user, "invalid_arguments", start);
+            return;
+        }
+
+        // turn the command away if it is over its rate limits or the database has no connections to spare
+        long retryMillis = admission.admit(spec, session, args);
+        if (retryMillis > 0) {
+            System.out.println("Server busy, please try again in " + retryMillis + " ms.");
+            audit(spec, session, user, "rejected", start);
+            return;
+        }
+
+        // every connection wait and query the handler makes counts against the command's deadline
+        Deadline.start(spec.getDeadlineMillis());
+        Log.beginCommand();
+        String outcome = "error";
+        try {
+            spec.getHandler().execute(session, args);
+            outcome = Log.commandFailed() ? "error" : "ok";
+        } catch (RejectedExecutionException e) {
+            System.out.println("Server busy, please try again later.");
+            outcome = "busy";
+        } finally {
+            Deadline.clear();
+            audit(spec, session, user, outcome, start);
+        }
+    }
+
+    // the user is whoever is logged in after the command, or before it for logout
+    private static void audit(CommandSpec spec, Session session, String userBefore, String outcome, long start) {
+        String user = session.getUsername();
+        Log.audit(spec == null ? null : spec.getName(), user != null ? user : userBefore, outcome,
+                System.nanoTime() - start);
+    }
+}
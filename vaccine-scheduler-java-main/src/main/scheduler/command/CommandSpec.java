@@ -0,0 +1,154 @@
+package scheduler.command;
+
+import scheduler.util.Util;
+
+/**
+ * Everything the registry needs to know about a command: its name, the types of its arguments,
+ * what to print when the arguments don't match, and the handler to run once they do.
+ */
+public class CommandSpec {
+    private final String name;
+    private final String usage;
+    private final String invalidMessage;
+    private final ArgType[] argTypes;
+    private final Command handler;
+    private final RateLimit rateLimit;
+    private final RateLimit userRateLimit;
+    private final boolean usesDatabase;
+    private final boolean varargs;
+    private final long deadlineMillis;
+
+    private CommandSpec(CommandSpecBuilder builder) {
+        this.name = builder.name;
+        this.usage = builder.usage;
+        this.invalidMessage = builder.invalidMessage;
+        this.argTypes = builder.argTypes;
+        this.handler = builder.handler;
+        this.rateLimit = builder.rateLimit;
+        this.userRateLimit = builder.userRateLimit;
+        this.usesDatabase = builder.usesDatabase;
+        this.varargs = builder.varargs;
+        this.deadlineMillis = builder.deadlineMillis;
+    }
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public String getUsage() {
+        return usage;
+    }
+
+    public String getInvalidMessage() {
+        return invalidMessage;
+    }
+
+    public Command getHandler() {
+        return handler;
+    }
+
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    public RateLimit getUserRateLimit() {
+        return userRateLimit;
+    }
+
+    public boolean usesDatabase() {
+        return usesDatabase;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    // parse tokens[1..] against the declared argument types, throws IllegalArgumentException
+    // carrying the message to show the user if the count is wrong or a token does not parse
+    Arguments parse(String[] tokens) {
+        int count = tokens.length - 1;
+        if (varargs ? count < argTypes.length : count != argTypes.length) {
+            throw new IllegalArgumentException(invalidMessage);
+        }
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            // extra varargs tokens take the type of the last declared argument
+            ArgType type = argTypes[Math.min(i, argTypes.length - 1)];
+            try {
+                values[i] = type.parse(tokens[i + 1]);
+            } catch (IllegalArgumentException e) {
+                String message = type.getInvalidMessage();
+                throw new IllegalArgumentException(message != null ? message : invalidMessage);
+            }
+        }
+        return new Arguments(values);
+    }
+
+    public static class CommandSpecBuilder {
+        // how long a command may take unless it sets its own deadline
+        private static final long DEFAULT_DEADLINE_MILLIS =
+                Long.parseLong(Util.getenvOrDefault("CommandDeadlineMillis", "5000"));
+
+        private final String name;
+        private final Command handler;
+        private String usage = "";
+        private String invalidMessage = "Please try again!";
+        private ArgType[] argTypes = new ArgType[0];
+        private RateLimit rateLimit = null;
+        private RateLimit userRateLimit = null;
+        private boolean usesDatabase = true;
+        private boolean varargs = false;
+        private long deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+
+        public CommandSpecBuilder(String name, Command handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+
+        public CommandSpecBuilder args(String usage, ArgType... argTypes) {
+            this.usage = usage;
+            this.argTypes = argTypes;
+            return this;
+        }
+
+        public CommandSpecBuilder invalidMessage(String invalidMessage) {
+            this.invalidMessage = invalidMessage;
+            return this;
+        }
+
+        // the last argument may be repeated, at least once
+        public CommandSpecBuilder varargs() {
+            this.varargs = true;
+            return this;
+        }
+
+        // limit on how often anyone can run this command
+        public CommandSpecBuilder rateLimit(double perSecond, int burst) {
+            this.rateLimit = new RateLimit(perSecond, burst);
+            return this;
+        }
+
+        // limit on how often a single user can run this command
+        public CommandSpecBuilder userRateLimit(double perSecond, int burst) {
+            this.userRateLimit = new RateLimit(perSecond, burst);
+            return this;
+        }
+
+        // the command never opens a connection, so it is not turned away when the connection budget is used up
+        public CommandSpecBuilder noDatabase() {
+            this.usesDatabase = false;
+            return this;
+        }
+
+        // time the command has for waiting on connections and queries, 0 for no limit
+        public CommandSpecBuilder deadline(long millis) {
+            this.deadlineMillis = millis;
+            return this;
+        }
+
+        public CommandSpec build() {
+            return new CommandSpec(this);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package scheduler.command;
+
+import scheduler.util.TokenBucket;
+
+/**
+ * Sustained rate and burst size for a token bucket.
+ */
+public class RateLimit {
+    private final double perSecond;
+    private final int burst;
+
+    public RateLimit(double perSecond, int burst) {
+        this.perSecond = perSecond;
+        this.burst = burst;
+    }
+
+    TokenBucket newBucket() {
+        return new TokenBucket(perSecond, burst);
+    }
+}
@@ -0,0 +1,47 @@
+package scheduler.command;
+
+public class Tokenizer {
+
+    private static final String[] EMPTY = new String[0];
+
+    /**
+     * Split a line on runs of whitespace in a single pass, without regex and without intermediate lists.
+     * Leading, trailing and repeated whitespace never produce empty tokens.
+     */
+    public static String[] tokenize(String line) {
+        if (line == null) {
+            return EMPTY;
+        }
+        int length = line.length();
+
+        // first pass: count the tokens so the array is allocated once
+        int count = 0;
+        boolean inToken = false;
+        for (int i = 0; i < length; i++) {
+            if (Character.isWhitespace(line.charAt(i))) {
+                inToken = false;
+            } else if (!inToken) {
+                inToken = true;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+
+        // second pass: cut out the tokens
+        String[] tokens = new String[count];
+        int t = 0;
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean whitespace = i == length || Character.isWhitespace(line.charAt(i));
+            if (whitespace && start >= 0) {
+                tokens[t++] = line.substring(start, i);
+                start = -1;
+            } else if (!whitespace && start < 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+}
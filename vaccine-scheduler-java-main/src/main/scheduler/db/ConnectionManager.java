@@ -1,20 +1,80 @@
 package scheduler.db;
 
+import scheduler.log.Log;
+import scheduler.util.Deadline;
+import scheduler.util.Metrics;
+import scheduler.util.Util;
+
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
-            ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+
+    // primary database, every write goes here
+    private static final String connectionUrl = buildUrl("ConnectionURL", "Server", "DBName");
+    private static final String userName = System.getenv("UserID");
+    private static final String userPass = System.getenv("Password");
+
+    // optional read-only endpoint, e.g. a readable secondary or a second local database when testing.
+    // Set either ReadConnectionURL or ReadServer/ReadDBName, credentials default to the primary's
+    private static final String readConnectionUrl = buildUrl("ReadConnectionURL", "ReadServer", "ReadDBName");
+    private static final String readUserName = Util.getenvOrDefault("ReadUserID", userName);
+    private static final String readUserPass = Util.getenvOrDefault("ReadPassword", userPass);
+
+    // the replica may lag behind the primary, so reads are only sent there once this long has passed
+    // since the last write made by this process; until then they go to the primary and see the write
+    private static final long readStalenessMillis =
+            Long.parseLong(Util.getenvOrDefault("ReadStalenessMillis", "5000"));
+    private static volatile long lastWriteMillis = 0;
+
+    // how many connections this process may have open at once, createConnection() waits for a free one
+    private static final int maxConnections = Integer.parseInt(Util.getenvOrDefault("MaxConnections", "20"));
+    private static final Semaphore connectionBudget = new Semaphore(maxConnections, true);
+
+    // optional date-partitioned storage: Appointment and Availabilities rows live on the shard that owns their
+    // date, everything else stays on the primary. Dates are grouped into ranges of ShardPartitionDays days and
+    // the ranges are dealt out to the ShardURLs (comma separated, same credentials as the primary) in turn, so
+    // the coming weeks' bookings spread over all of them. Each shard has its own connection budget; code that
+    // needs both always takes the primary's connection first
+    public static final int MAX_SHARDS = 16;
+    private static final String[] shardUrls = splitUrls(System.getenv("ShardURLs"));
+    private static final long shardPartitionDays = Long.parseLong(Util.getenvOrDefault("ShardPartitionDays", "7"));
+    private static final Semaphore[] shardBudgets = new Semaphore[shardUrls.length];
+
+    static {
+        if (shardUrls.length > MAX_SHARDS) {
+            throw new IllegalStateException("At most " + MAX_SHARDS + " ShardURLs are supported");
+        }
+        for (int i = 0; i < shardUrls.length; i++) {
+            shardBudgets[i] = new Semaphore(maxConnections, true);
+        }
+    }
 
+    private final boolean readOnly;
+    // -1 for the primary
+    private final int shard;
     private Connection con = null;
+    private boolean holdsPermit = false;
+    // whether con goes to the read replica
+    private boolean replica = false;
 
     public ConnectionManager() {
+        this(false, -1);
+    }
+
+    private ConnectionManager(boolean readOnly, int shard) {
+        this.readOnly = readOnly;
+        this.shard = shard;
         try {
             Class.forName(driverName);
         } catch (ClassNotFoundException e) {
@@ -22,20 +82,193 @@ public class ConnectionManager {
         }
     }
 
+    // connection manager for commands that only read (search, show_appointments)
+    public static ConnectionManager forReads() {
+        return new ConnectionManager(true, -1);
+    }
+
+    public static boolean isSharded() {
+        return shardUrls.length > 0;
+    }
+
+    // number of databases holding appointments and availabilities, 1 when not sharded
+    public static int shardCount() {
+        return Math.max(1, shardUrls.length);
+    }
+
+    // the shard that owns d, 0 when not sharded
+    public static int shardOf(Date d) {
+        if (!isSharded()) {
+            return 0;
+        }
+        return (int) Math.floorMod(Math.floorDiv(d.toLocalDate().toEpochDay(), shardPartitionDays),
+                (long) shardUrls.length);
+    }
+
+    // connection manager for the shard with the given index, the primary when not sharded
+    public static ConnectionManager forShard(int shard) {
+        return new ConnectionManager(false, isSharded() ? shard : -1);
+    }
+
+    /**
+     * Split from..to (inclusive) at partition boundaries, in date order, with the shard that owns each
+     * piece. A single range on shard 0 when not sharded.
+     */
+    public static List<ShardRange> shardRanges(Date from, Date to) {
+        List<ShardRange> ranges = new ArrayList<>();
+        if (!isSharded()) {
+            ranges.add(new ShardRange(from, to, 0));
+            return ranges;
+        }
+        long day = from.toLocalDate().toEpochDay();
+        long last = to.toLocalDate().toEpochDay();
+        while (day <= last) {
+            long end = Math.min(last, (Math.floorDiv(day, shardPartitionDays) + 1) * shardPartitionDays - 1);
+            Date start = Date.valueOf(LocalDate.ofEpochDay(day));
+            ranges.add(new ShardRange(start, Date.valueOf(LocalDate.ofEpochDay(end)), shardOf(start)));
+            day = end + 1;
+        }
+        return ranges;
+    }
+
+    public static class ShardRange {
+        private final Date from;
+        private final Date to;
+        private final int shard;
+
+        ShardRange(Date from, Date to, int shard) {
+            this.from = from;
+            this.to = to;
+            this.shard = shard;
+        }
+
+        public Date getFrom() {
+            return from;
+        }
+
+        public Date getTo() {
+            return to;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+    }
+
+    // must be called after every successful write so that reads within the staleness bound stay on the primary
+    public static void recordWrite() {
+        lastWriteMillis = System.currentTimeMillis();
+    }
+
+    public static boolean hasReadReplica() {
+        return readConnectionUrl != null;
+    }
+
+    // connections that can still be opened before the budget is used up
+    public static int availableConnections() {
+        return connectionBudget.availablePermits();
+    }
+
+    /**
+     * Opens the connection, or returns the one already open. Under a command Deadline it waits for a free
+     * connection only as long as the deadline allows and then throws RejectedExecutionException, and every
+     * statement gets the rest of the deadline as its query timeout.
+     */
     public Connection createConnection() {
+        if (con != null) {
+            return con;
+        }
+        if (!holdsPermit) {
+            Deadline deadline = Deadline.current();
+            try {
+                if (deadline == null) {
+                    budget().acquire();
+                } else if (!budget().tryAcquire(deadline.remainingMillis(), TimeUnit.MILLISECONDS)) {
+                    Metrics.increment("deadline.borrow_timeouts");
+                    throw new RejectedExecutionException("No database connection free before the deadline");
+                }
+                holdsPermit = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            if (shard >= 0) {
+                con = DriverManager.getConnection(shardUrls[shard], userName, userPass);
+            } else if (useReplica()) {
+                con = DriverManager.getConnection(readConnectionUrl, readUserName, readUserPass);
+                con.setReadOnly(true);
+                replica = true;
+            } else {
+                con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            }
+            con = TimeoutConnection.wrap(con);
         } catch (SQLException e) {
-            e.printStackTrace();
+            Log.error("Error occurred when connecting to the database", e);
+        }
+        if (con == null) {
+            releasePermit();
         }
         return con;
     }
 
+    // true if the open connection is the replica, whose data may be behind the primary's by any amount
+    public boolean isReplica() {
+        return replica;
+    }
+
     public void closeConnection() {
         try {
-            this.con.close();
+            if (this.con != null) {
+                this.con.close();
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            Log.error("Error occurred when closing the connection", e);
+        } finally {
+            this.con = null;
+            this.replica = false;
+            releasePermit();
+        }
+    }
+
+    private void releasePermit() {
+        if (holdsPermit) {
+            holdsPermit = false;
+            budget().release();
+        }
+    }
+
+    private Semaphore budget() {
+        return shard >= 0 ? shardBudgets[shard] : connectionBudget;
+    }
+
+    private boolean useReplica() {
+        return readOnly && hasReadReplica()
+                && System.currentTimeMillis() - lastWriteMillis >= readStalenessMillis;
+    }
+
+    // a full JDBC url wins, otherwise it is put together from the Azure server and database names
+    private static String buildUrl(String urlVariable, String serverVariable, String databaseVariable) {
+        String url = System.getenv(urlVariable);
+        if (url != null) {
+            return url;
+        }
+        String server = System.getenv(serverVariable);
+        if (server == null) {
+            return null;
+        }
+        return "jdbc:sqlserver://" + server + ".database.windows.net:1433;database=" + System.getenv(databaseVariable);
+    }
+
+    private static String[] splitUrls(String urls) {
+        if (urls == null || urls.trim().isEmpty()) {
+            return new String[0];
+        }
+        String[] split = urls.split(",");
+        for (int i = 0; i < split.length; i++) {
+            split[i] = split[i].trim();
         }
+        return split;
     }
 }
@@ -0,0 +1,107 @@
+package scheduler.db;
+
+import scheduler.util.Deadline;
+import scheduler.util.Metrics;
+import scheduler.util.Util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an idempotent read with its own connections. When HedgeAfterMillis is set and the read has not
+ * finished by then, the same read is started a second time on fresh connections, skipping the replica, and
+ * whichever finishes first is used; a connection stuck behind a lock or a hiccup on one server then costs
+ * HedgeAfterMillis instead of the whole deadline. The slower attempt finishes in the background and closes
+ * its own connections. Without HedgeAfterMillis the read simply runs on the calling thread.
+ */
+public class HedgedRead {
+
+    public interface Read<T> {
+        T run(ShardedConnections shards) throws SQLException;
+    }
+
+    private static final long hedgeAfterMillis = Long.parseLong(Util.getenvOrDefault("HedgeAfterMillis", "0"));
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "hedged-read");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static <T> T run(Read<T> read) throws SQLException {
+        if (hedgeAfterMillis <= 0) {
+            return attempt(read, ConnectionManager.forReads());
+        }
+        Deadline deadline = Deadline.current();
+        CompletionService<T> completion = new ExecutorCompletionService<>(executor);
+        Future<T> first = completion.submit(() -> attempt(read, ConnectionManager.forReads(), deadline));
+        int running = 1;
+        SQLException failure = null;
+        try {
+            Future<T> done = completion.poll(hedgeAfterMillis, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                Metrics.increment("hedge.started");
+                completion.submit(() -> attempt(read, new ConnectionManager(), deadline));
+                running++;
+            }
+            while (running > 0) {
+                if (done == null) {
+                    done = deadline == null ? completion.take()
+                            : completion.poll(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        throw new SQLTimeoutException("Command deadline exceeded");
+                    }
+                }
+                running--;
+                try {
+                    T result = done.get();
+                    if (done != first) {
+                        Metrics.increment("hedge.won");
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    // the other attempt may still succeed
+                    failure = e.getCause() instanceof SQLException ? (SQLException) e.getCause()
+                            : new SQLException(e.getCause());
+                }
+                done = null;
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(e);
+        }
+    }
+
+    private static <T> T attempt(Read<T> read, ConnectionManager cm, Deadline deadline) throws SQLException {
+        Deadline.attach(deadline);
+        try {
+            return attempt(read, cm);
+        } finally {
+            Deadline.clear();
+        }
+    }
+
+    private static <T> T attempt(Read<T> read, ConnectionManager cm) throws SQLException {
+        Connection con = cm.createConnection();
+        if (con == null) {
+            cm.closeConnection();
+            throw new SQLException();
+        }
+        ShardedConnections shards = new ShardedConnections(con, cm.isReplica());
+        try {
+            return read.run(shards);
+        } finally {
+            shards.close();
+            cm.closeConnection();
+        }
+    }
+}
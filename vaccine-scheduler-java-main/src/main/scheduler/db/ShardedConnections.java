@@ -0,0 +1,95 @@
+package scheduler.db;
+
+import scheduler.log.Log;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The connections one command needs when Appointment and Availabilities are split over ShardURLs: the
+ * caller's own primary connection plus one per shard, opened the first time a date on that shard comes up
+ * and closed together by close(). Without shards every date maps to the primary connection.
+ */
+public class ShardedConnections {
+
+    private final Connection primary;
+    // primary is really the read replica
+    private final boolean replica;
+    private final ConnectionManager[] managers;
+    private final Connection[] connections;
+
+    // primary is opened and closed by the caller
+    public ShardedConnections(Connection primary) {
+        this(primary, false);
+    }
+
+    public ShardedConnections(Connection primary, boolean replica) {
+        this.primary = primary;
+        this.replica = replica;
+        this.managers = new ConnectionManager[ConnectionManager.shardCount()];
+        this.connections = new Connection[managers.length];
+    }
+
+    public Connection primary() {
+        return primary;
+    }
+
+    // whether what primary() reads may be behind the primary database
+    public boolean isReplica() {
+        return replica;
+    }
+
+    // connection to the database holding appointments and availabilities on d
+    public Connection forDate(Date d) throws SQLException {
+        return forShard(ConnectionManager.shardOf(d));
+    }
+
+    public Connection forShard(int shard) throws SQLException {
+        if (!ConnectionManager.isSharded()) {
+            return primary;
+        }
+        if (connections[shard] == null) {
+            managers[shard] = ConnectionManager.forShard(shard);
+            connections[shard] = managers[shard].createConnection();
+            if (connections[shard] == null) {
+                managers[shard].closeConnection();
+                managers[shard] = null;
+                throw new SQLException("Cannot connect to shard " + shard);
+            }
+        }
+        return connections[shard];
+    }
+
+    // roll back whatever is uncommitted on any of the connections
+    public void rollback() {
+        List<Connection> all = new ArrayList<>(Arrays.asList(connections));
+        all.add(primary);
+        for (Connection con : all) {
+            if (con == null) {
+                continue;
+            }
+            try {
+                if (!con.getAutoCommit()) {
+                    con.rollback();
+                    con.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                Log.error("Error occurred when rolling back", e);
+            }
+        }
+    }
+
+    public void close() {
+        for (int i = 0; i < managers.length; i++) {
+            if (managers[i] != null) {
+                managers[i].closeConnection();
+                managers[i] = null;
+                connections[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package scheduler.db;
+
+import scheduler.util.Deadline;
+import scheduler.util.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+/**
+ * Wraps a connection so that every statement it creates gets what is left of the current thread's Deadline
+ * as its query timeout, and no statement is created once the deadline has passed. Done here rather than at
+ * each prepareStatement so no query can be missed.
+ */
+class TimeoutConnection implements InvocationHandler {
+
+    private final Connection con;
+
+    private TimeoutConnection(Connection con) {
+        this.con = con;
+    }
+
+    static Connection wrap(Connection con) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new TimeoutConnection(con));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("equals") && args != null && args.length == 1) {
+            return proxy == args[0];
+        }
+        Object result;
+        try {
+            result = method.invoke(con, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (result instanceof Statement) {
+            Deadline deadline = Deadline.current();
+            if (deadline != null) {
+                Statement statement = (Statement) result;
+                if (deadline.expired()) {
+                    statement.close();
+                    Metrics.increment("deadline.expired");
+                    throw new SQLTimeoutException("Command deadline exceeded");
+                }
+                statement.setQueryTimeout(deadline.queryTimeoutSeconds());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,334 @@
+package scheduler.export;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardedConnections;
+import scheduler.model.Appointment;
+import scheduler.util.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the appointments in a date range to a file, for the daily health-authority extract.
+ *
+ * Rows are read with a forward-only, read-only cursor and a large fetch size, and written through one
+ * direct buffer that is flushed to a FileChannel whenever it fills, so memory stays the same whatever the
+ * number of rows. The file is written next to path and moved into place once complete. With shards the
+ * range is read one partition after another, so the rows still come out in date order.
+ *
+ * File names come from the user, so resolve() keeps them inside the export directory, and an existing
+ * file is only replaced when the caller asks for it.
+ *
+ * CSV has a header row: AppointmentID,AppointmentDate,CaregiverUsername,PatientUsername,VaccineName.
+ *
+ * The columnar format stores rows in chunks of up to CHUNK_ROWS, each column contiguous (big-endian):
+ *   magic "VCOL" (int), version (int), column count (int), then name and type (byte) for each column
+ *   chunks:  row count (int), then the values of each column in turn; a row count of 0 ends the chunks
+ *   total row count (long)
+ * Types are 1 = int, 2 = date as epoch day (int), 3 = string (2 byte length and UTF-8, 0xFFFF for null).
+ */
+public class AppointmentExporter {
+
+    public enum Format {
+        CSV, COLUMNAR
+    }
+
+    private static final int MAGIC = 0x56434F4C; // "VCOL"
+    private static final int VERSION = 1;
+    private static final int CHUNK_ROWS = 65536;
+    private static final int NULL_STRING = 0xFFFF;
+    private static final String[] COLUMNS = {"AppointmentID", "AppointmentDate", "CaregiverUsername",
+            "PatientUsername", "VaccineName"};
+    private static final byte[] TYPES = {1, 2, 3, 3, 3};
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+    private AppointmentExporter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * The file name resolved inside exportDir.
+     * @throws IllegalArgumentException if the name is absolute, contains "..", or otherwise points outside
+     */
+    public static Path resolve(Path exportDir, String name) {
+        Path relative = Paths.get(name);
+        if (name.isEmpty() || relative.isAbsolute()) {
+            throw new IllegalArgumentException("Not a relative file name: " + name);
+        }
+        for (Path part : relative) {
+            if ("..".equals(part.toString())) {
+                throw new IllegalArgumentException("File name contains \"..\": " + name);
+            }
+        }
+        Path dir = exportDir.toAbsolutePath().normalize();
+        Path path = dir.resolve(relative).normalize();
+        if (!path.startsWith(dir) || path.equals(dir)) {
+            throw new IllegalArgumentException("File name is outside the export directory: " + name);
+        }
+        return path;
+    }
+
+    /**
+     * Write the appointments dated from..to (inclusive) to path, a path returned by resolve().
+     * @return the number of rows written
+     * @throws FileAlreadyExistsException if path exists and overwrite is false
+     */
+    public static long export(ShardedConnections shards, Date from, Date to, Path exportDir, Path path,
+                              Format format, boolean overwrite, int fetchSize) throws SQLException, IOException {
+        long start = System.nanoTime();
+        if (!Files.isDirectory(exportDir)) {
+            Files.createDirectories(exportDir);
+        }
+        // a symbolic link inside the export directory must not lead out of it, checked before anything is created
+        Path existing = path.getParent();
+        while (!Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (!existing.toRealPath().startsWith(exportDir.toRealPath())) {
+            throw new IOException("Export path leaves the export directory: " + path);
+        }
+        if (!Files.isDirectory(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+        if (!overwrite && Files.exists(path)) {
+            throw new FileAlreadyExistsException(path.toString());
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long rows;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Rows resultSet = new Rows(shards, ConnectionManager.shardRanges(from, to), fetchSize)) {
+            AppointmentExporter exporter = new AppointmentExporter(channel);
+            rows = format == Format.CSV ? exporter.writeCsv(resultSet) : exporter.writeColumnar(resultSet);
+            exporter.flush();
+            channel.force(true);
+        } catch (SQLException | IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            if (overwrite) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                // without REPLACE_EXISTING this fails if the file appeared while we were writing
+                Files.move(temp, path);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Metrics.add("export.rows", rows);
+        Metrics.add("export.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return rows;
+    }
+
+    private long writeCsv(Rows resultSet) throws SQLException, IOException {
+        putCsvLine(String.join(",", COLUMNS));
+        long rows = 0;
+        StringBuilder line = new StringBuilder(256);
+        while (resultSet.next()) {
+            line.setLength(0);
+            line.append(resultSet.getId()).append(',')
+                    .append(resultSet.getDate()).append(',');
+            appendCsvField(line, resultSet.getString(3));
+            line.append(',');
+            appendCsvField(line, resultSet.getString(4));
+            line.append(',');
+            appendCsvField(line, resultSet.getString(5));
+            putCsvLine(line);
+            rows++;
+        }
+        return rows;
+    }
+
+    private void putCsvLine(CharSequence line) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    // quote fields that contain a separator, a quote or a line break, doubling any quotes inside
+    private static void appendCsvField(StringBuilder line, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    private long writeColumnar(Rows resultSet) throws SQLException, IOException {
+        ensure(12);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(COLUMNS.length);
+        for (int i = 0; i < COLUMNS.length; i++) {
+            putString(COLUMNS[i]);
+            ensure(1);
+            buffer.put(TYPES[i]);
+        }
+
+        // one chunk of rows at a time, the arrays are reused for every chunk
+        int[] ids = new int[CHUNK_ROWS];
+        int[] days = new int[CHUNK_ROWS];
+        String[] caregivers = new String[CHUNK_ROWS];
+        String[] patients = new String[CHUNK_ROWS];
+        String[] vaccines = new String[CHUNK_ROWS];
+        long rows = 0;
+        int count = 0;
+        boolean more = true;
+        while (more) {
+            more = resultSet.next();
+            if (more) {
+                ids[count] = resultSet.getId();
+                days[count] = (int) resultSet.getDate().toLocalDate().toEpochDay();
+                caregivers[count] = resultSet.getString(3);
+                patients[count] = resultSet.getString(4);
+                vaccines[count] = resultSet.getString(5);
+                count++;
+            }
+            if (count == CHUNK_ROWS || (!more && count > 0)) {
+                ensure(4);
+                buffer.putInt(count);
+                putInts(ids, count);
+                putInts(days, count);
+                putStrings(caregivers, count);
+                putStrings(patients, count);
+                putStrings(vaccines, count);
+                rows += count;
+                count = 0;
+            }
+        }
+        ensure(12);
+        buffer.putInt(0).putLong(rows);
+        return rows;
+    }
+
+    private void putInts(int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            ensure(4);
+            buffer.putInt(values[i]);
+        }
+    }
+
+    private void putStrings(String[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            putString(values[i]);
+            values[i] = null;
+        }
+    }
+
+    private void putString(String value) throws IOException {
+        if (value == null) {
+            ensure(2);
+            buffer.putShort((short) NULL_STRING);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(2 + bytes.length);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    // make room for n more bytes, writing out what is buffered if needed
+    private void ensure(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // the rows of each shard range in turn, with one forward-only cursor open at a time
+    private static class Rows implements AutoCloseable {
+        private static final String QUERY = "SELECT AppointmentID, AppointmentDate, CaregiverUsername, " +
+                "PatientUsername, VaccineName FROM Appointment WHERE AppointmentDate >= ? AND AppointmentDate <= ? " +
+                "ORDER BY AppointmentDate, AppointmentID";
+
+        private final ShardedConnections shards;
+        private final Iterator<ConnectionManager.ShardRange> ranges;
+        private final int fetchSize;
+        private ResultSet current = null;
+        private int shard;
+
+        Rows(ShardedConnections shards, List<ConnectionManager.ShardRange> ranges, int fetchSize) {
+            this.shards = shards;
+            this.ranges = ranges.iterator();
+            this.fetchSize = fetchSize;
+        }
+
+        boolean next() throws SQLException {
+            while (true) {
+                if (current != null) {
+                    if (current.next()) {
+                        return true;
+                    }
+                    close();
+                }
+                if (!ranges.hasNext()) {
+                    return false;
+                }
+                ConnectionManager.ShardRange range = ranges.next();
+                shard = range.getShard();
+                PreparedStatement statement = shards.forShard(shard).prepareStatement(QUERY,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                statement.setDate(1, range.getFrom());
+                statement.setDate(2, range.getTo());
+                current = statement.executeQuery();
+                current.setFetchSize(fetchSize);
+            }
+        }
+
+        int getId() throws SQLException {
+            return Appointment.toGlobalId(current.getInt(1), shard);
+        }
+
+        Date getDate() throws SQLException {
+            return current.getDate(2);
+        }
+
+        String getString(int column) throws SQLException {
+            return current.getString(column);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (current != null) {
+                ResultSet resultSet = current;
+                current = null;
+                Statement statement = resultSet.getStatement();
+                resultSet.close();
+                statement.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package scheduler.journal;
+
+import java.sql.Date;
+import java.time.LocalDate;
+
+/**
+ * One state change recorded in the BookingJournal. Which fields are set depends on the type:
+ *   AVAILABILITY  caregiver, date, location
+ *   ADD_DOSES     vaccine, location, amount (number of doses)
+ *   RESERVE       patient, caregiver, vaccine, location, date
+ *   CANCEL        caregiver, vaccine, location, date, amount (appointment id)
+ */
+public class BookingEvent {
+
+    public enum Type {
+        AVAILABILITY(1),
+        ADD_DOSES(2),
+        RESERVE(3),
+        CANCEL(4);
+
+        final byte code;
+
+        Type(int code) {
+            this.code = (byte) code;
+        }
+
+        static Type fromCode(byte code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Type type;
+    private final long sequence;
+    private final long timestamp;
+    private final int epochDay;
+    private final int amount;
+    private final String patient;
+    private final String caregiver;
+    private final String vaccine;
+    private final String location;
+
+    BookingEvent(Type type, long sequence, long timestamp, int epochDay, int amount,
+                 String patient, String caregiver, String vaccine, String location) {
+        this.type = type;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.epochDay = epochDay;
+        this.amount = amount;
+        this.patient = patient;
+        this.caregiver = caregiver;
+        this.vaccine = vaccine;
+        this.location = location;
+    }
+
+    public static BookingEvent availability(String caregiver, String location, Date date) {
+        return new BookingEvent(Type.AVAILABILITY, 0, System.currentTimeMillis(), toEpochDay(date), 0,
+                null, caregiver, null, location);
+    }
+
+    public static BookingEvent addDoses(String location, String vaccine, int doses) {
+        return new BookingEvent(Type.ADD_DOSES, 0, System.currentTimeMillis(), 0, doses,
+                null, null, vaccine, location);
+    }
+
+    public static BookingEvent reserve(String patient, String caregiver, String vaccine, String location, Date date) {
+        return new BookingEvent(Type.RESERVE, 0, System.currentTimeMillis(), toEpochDay(date), 0,
+                patient, caregiver, vaccine, location);
+    }
+
+    public static BookingEvent cancel(int appointmentId, String caregiver, String vaccine, String location,
+                                      Date date) {
+        return new BookingEvent(Type.CANCEL, 0, System.currentTimeMillis(), toEpochDay(date), appointmentId,
+                null, caregiver, vaccine, location);
+    }
+
+    // copy of this event with the sequence number the journal gave it
+    BookingEvent withSequence(long sequence) {
+        return new BookingEvent(type, sequence, timestamp, epochDay, amount, patient, caregiver, vaccine, location);
+    }
+
+    // Getters
+    public Type getType() {
+        return type;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getEpochDay() {
+        return epochDay;
+    }
+
+    public Date getDate() {
+        return Date.valueOf(LocalDate.ofEpochDay(epochDay));
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public String getPatient() {
+        return patient;
+    }
+
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    private static int toEpochDay(Date date) {
+        return (int) date.toLocalDate().toEpochDay();
+    }
+
+    @Override
+    public String toString() {
+        return "BookingEvent{" +
+                "type=" + type +
+                ", sequence=" + sequence +
+                ", epochDay=" + epochDay +
+                ", amount=" + amount +
+                ", patient='" + patient + '\'' +
+                ", caregiver='" + caregiver + '\'' +
+                ", vaccine='" + vaccine + '\'' +
+                ", location='" + location + '\'' +
+                '}';
+    }
+}
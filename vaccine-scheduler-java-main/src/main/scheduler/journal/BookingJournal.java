@@ -0,0 +1,542 @@
+package scheduler.journal;
+
+import scheduler.util.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of booking events in a memory-mapped file on local disk.
+ *
+ * The file is a 64 byte header followed by a ring of fixed-size 512 byte records. Event number n always
+ * lives in slot (n - 1) % slots, so a record can be found from its sequence number alone, and a slot is
+ * only reused once the event in it has been replicated to the database.
+ *
+ * Header:  magic (int), version (int), journal id (2 longs), last replicated sequence (long)
+ * Record:  sequence (long), crc32 (int), type (byte), 3 bytes padding, timestamp (long), epoch day (int),
+ *          amount (int), then patient, caregiver, vaccine and location as a 2 byte length plus up to 118
+ *          bytes of UTF-8 (version 1 had no location and 158 bytes for the others)
+ *
+ * Appends only write to the mapped memory. A flusher thread fsyncs whatever has been appended every
+ * JournalFlushMillis, so all appends that arrive within one interval share a single fsync (group commit).
+ * awaitDurable() blocks until an event has been fsynced.
+ *
+ * Until the JournalReplicator has applied them, reservations and dose changes are also kept in memory
+ * so that reserve can take them into account when looking at the database.
+ */
+public class BookingJournal {
+
+    private static final int MAGIC = 0x4A524E4C; // "JRNL"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 512;
+    private static final int STRING_SLOT = 120;
+    static final int MAX_STRING_BYTES = STRING_SLOT - 2;
+
+    // header offsets
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_ID_HIGH = 8;
+    private static final int H_ID_LOW = 16;
+    private static final int H_REPLICATED = 24;
+
+    // record offsets
+    private static final int R_SEQUENCE = 0;
+    private static final int R_CRC = 8;
+    private static final int R_TYPE = 12;
+    private static final int R_TIMESTAMP = 16;
+    private static final int R_EPOCH_DAY = 24;
+    private static final int R_AMOUNT = 28;
+    private static final int R_PATIENT = 32;
+    private static final int R_CAREGIVER = R_PATIENT + STRING_SLOT;
+    private static final int R_VACCINE = R_CAREGIVER + STRING_SLOT;
+    private static final int R_LOCATION = R_VACCINE + STRING_SLOT;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long slots;
+    private final long flushMillis;
+    private final UUID journalId;
+
+    // all fields below are guarded by lock
+    private final Object lock = new Object();
+    private long nextSequence;
+    private long durableSequence;
+    private long replicatedSequence;
+    private boolean closed = false;
+
+    // reservations and dose changes that are journaled but not yet in the database
+    private final Set<String> pendingSlots = new HashSet<>();
+    // location|vaccine -> doses
+    private final Map<String, Integer> pendingDoses = new HashMap<>();
+
+    private final Thread flusher;
+
+    private BookingJournal(Path path, long sizeBytes, long flushMillis) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), sizeBytes);
+        // one mapping holds at most 2 GB, and positions in it are ints
+        if (size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("Journal is too large: " + size + " bytes");
+        }
+        this.slots = (size - HEADER_SIZE) / RECORD_SIZE;
+        if (slots < 1) {
+            throw new IOException("Journal is too small: " + size + " bytes");
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + slots * RECORD_SIZE);
+        this.flushMillis = flushMillis;
+
+        if (buffer.getInt(H_MAGIC) == 0) {
+            // new file
+            UUID id = UUID.randomUUID();
+            buffer.putInt(H_MAGIC, MAGIC);
+            buffer.putInt(H_VERSION, VERSION);
+            buffer.putLong(H_ID_HIGH, id.getMostSignificantBits());
+            buffer.putLong(H_ID_LOW, id.getLeastSignificantBits());
+            buffer.putLong(H_REPLICATED, 0);
+            buffer.force();
+        } else if (buffer.getInt(H_MAGIC) != MAGIC) {
+            throw new IOException("Not a booking journal: " + path);
+        } else if (buffer.getInt(H_VERSION) != VERSION) {
+            upgrade(path);
+        }
+        this.journalId = new UUID(buffer.getLong(H_ID_HIGH), buffer.getLong(H_ID_LOW));
+
+        // recover: find the newest intact record, then keep only the unbroken run of records leading up to it.
+        // Records after a gap were never reported durable (the gap was in the same unfinished fsync), so they
+        // are wiped. Slots older than one lap or already replicated may legitimately hold newer records.
+        long newest = 0;
+        for (long slot = 0; slot < slots; slot++) {
+            newest = Math.max(newest, validSequenceAt(HEADER_SIZE + (int) (slot * RECORD_SIZE)));
+        }
+        long replicated = Math.min(buffer.getLong(H_REPLICATED), newest);
+        long last = newest;
+        for (long sequence = Math.max(replicated + 1, newest - slots + 1); sequence <= newest; sequence++) {
+            if (validSequenceAt(positionOf(sequence)) != sequence) {
+                last = sequence - 1;
+                break;
+            }
+        }
+        for (long sequence = last + 1; sequence <= newest; sequence++) {
+            if (validSequenceAt(positionOf(sequence)) == sequence) {
+                buffer.putLong(positionOf(sequence) + R_SEQUENCE, 0);
+            }
+        }
+        this.nextSequence = last + 1;
+        this.durableSequence = last;
+        this.replicatedSequence = Math.min(replicated, last);
+        rebuildPending();
+
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Take over a journal written with the version 1 layout. Its records are only skipped, never read, so
+     * this is only allowed once every one of them has been replicated; new records carry on numbering
+     * after them, which keeps JournalReplication valid.
+     */
+    private void upgrade(Path path) throws IOException {
+        long newest = 0;
+        for (long slot = 0; slot < slots; slot++) {
+            newest = Math.max(newest, validSequenceAt(HEADER_SIZE + (int) (slot * RECORD_SIZE)));
+        }
+        if (buffer.getInt(H_VERSION) != 1 || buffer.getLong(H_REPLICATED) < newest) {
+            throw new IOException("Journal has events of another version that were not replicated yet: " + path);
+        }
+        buffer.putInt(H_VERSION, VERSION);
+        buffer.force();
+    }
+
+    public static BookingJournal open(Path path, long sizeBytes, long flushMillis) throws IOException {
+        return new BookingJournal(path, sizeBytes, flushMillis);
+    }
+
+    // random id given to the file when it was created, used to remember how far it was replicated
+    public String getJournalId() {
+        return journalId.toString();
+    }
+
+    /**
+     * Append an event without waiting for it to be durable.
+     * @return the sequence number given to the event
+     * @throws IllegalStateException if the journal is full of events that have not been replicated yet
+     * @throws IllegalArgumentException if a name is too long for the fixed record layout
+     */
+    public long append(BookingEvent event) {
+        synchronized (lock) {
+            return appendLocked(event);
+        }
+    }
+
+    /**
+     * Append a reservation unless the caregiver already has a journaled, unreplicated booking on that date,
+     * or the stock the caller checked plus the pending dose changes leaves no dose for it. Both are checked
+     * under the lock that appends, so two reservations can never take the same slot or the last dose.
+     * @param stock doses of the vaccine at the location in the database, not counting the journal
+     * @return the sequence number given to the event, -1 if the slot is taken or -2 if there is no dose left
+     */
+    public long appendReservation(BookingEvent event, int stock) {
+        synchronized (lock) {
+            if (pendingSlots.contains(slotKey(event.getCaregiver(), event.getEpochDay()))) {
+                return -1;
+            }
+            if (stock + pendingDoses.getOrDefault(doseKey(event), 0) < 1) {
+                return -2;
+            }
+            return appendLocked(event);
+        }
+    }
+
+    // block until the event with the given sequence number has been fsynced
+    public void awaitDurable(long sequence) throws InterruptedException {
+        synchronized (lock) {
+            while (durableSequence < sequence) {
+                if (closed) {
+                    throw new IllegalStateException("Journal closed");
+                }
+                lock.wait();
+            }
+        }
+    }
+
+    // append and wait until durable, the usual way for a command to record a change
+    public long appendAndWait(BookingEvent event) throws InterruptedException {
+        long sequence = append(event);
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    // true if the caregiver has a journaled booking on the date that hasn't reached the database yet
+    public boolean isPendingBooked(String caregiver, Date date) {
+        synchronized (lock) {
+            return pendingSlots.contains(slotKey(caregiver, (int) date.toLocalDate().toEpochDay()));
+        }
+    }
+
+    // change in doses of the vaccine at location that hasn't reached the database yet
+    public int pendingDoseDelta(String location, String vaccine) {
+        synchronized (lock) {
+            return pendingDoses.getOrDefault(doseKey(location, vaccine), 0);
+        }
+    }
+
+    /**
+     * Call the consumer for every event still in the file with a sequence number of at least fromSequence,
+     * oldest first. Replaying from 1 on an empty database rebuilds the state as long as the ring hasn't
+     * wrapped around yet.
+     */
+    public void replay(long fromSequence, Consumer<BookingEvent> consumer) {
+        long first;
+        long last;
+        synchronized (lock) {
+            last = durableSequence;
+            first = Math.max(Math.max(fromSequence, 1), last - slots + 1);
+        }
+        for (long sequence = first; sequence <= last; sequence++) {
+            BookingEvent event = read(sequence);
+            if (event != null) {
+                consumer.accept(event);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        buffer.force();
+        channel.close();
+    }
+
+    // --- used by the JournalReplicator ---
+
+    // next durable event that hasn't been replicated, blocking until there is one; null once closed
+    BookingEvent nextToReplicate() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                while (durableSequence <= replicatedSequence && !closed) {
+                    lock.wait();
+                }
+                if (durableSequence <= replicatedSequence) {
+                    return null;
+                }
+                BookingEvent event = read(replicatedSequence + 1);
+                if (event != null) {
+                    return event;
+                }
+                // damaged on disk after it was written, nothing we can apply
+                Metrics.increment("journal.corrupt");
+                replicatedSequence++;
+                buffer.putLong(H_REPLICATED, replicatedSequence);
+            }
+        }
+    }
+
+    // the event has been applied to the database, its slot may be reused
+    void markReplicated(BookingEvent event) {
+        synchronized (lock) {
+            if (event.getSequence() != replicatedSequence + 1) {
+                return;
+            }
+            replicatedSequence = event.getSequence();
+            buffer.putLong(H_REPLICATED, replicatedSequence);
+            removePending(event);
+            lock.notifyAll();
+        }
+        Metrics.increment("journal.replicated");
+    }
+
+    // the database already contains everything up to this sequence number (read back at startup)
+    void skipReplicatedUpTo(long sequence) {
+        synchronized (lock) {
+            if (sequence > replicatedSequence) {
+                replicatedSequence = Math.min(sequence, durableSequence);
+                buffer.putLong(H_REPLICATED, replicatedSequence);
+                rebuildPending();
+            }
+        }
+    }
+
+    long getReplicatedSequence() {
+        synchronized (lock) {
+            return replicatedSequence;
+        }
+    }
+
+    // --- internals ---
+
+    private long appendLocked(BookingEvent event) {
+        if (closed) {
+            throw new IllegalStateException("Journal closed");
+        }
+        if (nextSequence - replicatedSequence > slots) {
+            Metrics.increment("journal.full");
+            throw new IllegalStateException("Journal is full, replication is behind");
+        }
+        byte[] patient = encode(event.getPatient());
+        byte[] caregiver = encode(event.getCaregiver());
+        byte[] vaccine = encode(event.getVaccine());
+        byte[] location = encode(event.getLocation());
+
+        long sequence = nextSequence++;
+        int position = positionOf(sequence);
+        // write everything but the sequence number first, so a torn record never looks valid
+        buffer.putLong(position + R_SEQUENCE, 0);
+        buffer.put(position + R_TYPE, event.getType().code);
+        buffer.put(position + R_TYPE + 1, (byte) 0);
+        buffer.put(position + R_TYPE + 2, (byte) 0);
+        buffer.put(position + R_TYPE + 3, (byte) 0);
+        buffer.putLong(position + R_TIMESTAMP, event.getTimestamp());
+        buffer.putInt(position + R_EPOCH_DAY, event.getEpochDay());
+        buffer.putInt(position + R_AMOUNT, event.getAmount());
+        putString(position + R_PATIENT, patient);
+        putString(position + R_CAREGIVER, caregiver);
+        putString(position + R_VACCINE, vaccine);
+        putString(position + R_LOCATION, location);
+        buffer.putLong(position + R_SEQUENCE, sequence);
+        buffer.putInt(position + R_CRC, checksum(position));
+
+        addPending(event);
+        Metrics.increment("journal.appended");
+        lock.notifyAll();
+        return sequence;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long target;
+            synchronized (lock) {
+                while (durableSequence == nextSequence - 1 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed && durableSequence == nextSequence - 1) {
+                    return;
+                }
+            }
+            // let more appends join this fsync
+            if (flushMillis > 0) {
+                try {
+                    Thread.sleep(flushMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            synchronized (lock) {
+                target = nextSequence - 1;
+            }
+            buffer.force();
+            synchronized (lock) {
+                Metrics.increment("journal.fsync");
+                Metrics.add("journal.fsync_events", target - durableSequence);
+                durableSequence = target;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private BookingEvent read(long sequence) {
+        int position = positionOf(sequence);
+        if (validSequenceAt(position) != sequence) {
+            return null;
+        }
+        BookingEvent.Type type = BookingEvent.Type.fromCode(buffer.get(position + R_TYPE));
+        return new BookingEvent(type, sequence, buffer.getLong(position + R_TIMESTAMP),
+                buffer.getInt(position + R_EPOCH_DAY), buffer.getInt(position + R_AMOUNT),
+                getString(position + R_PATIENT), getString(position + R_CAREGIVER), getString(position + R_VACCINE),
+                getString(position + R_LOCATION));
+    }
+
+    // sequence number of the record at the position, or 0 if the slot is empty or damaged
+    private long validSequenceAt(int position) {
+        long sequence = buffer.getLong(position + R_SEQUENCE);
+        if (sequence <= 0 || buffer.getInt(position + R_CRC) != checksum(position)
+                || BookingEvent.Type.fromCode(buffer.get(position + R_TYPE)) == null) {
+            return 0;
+        }
+        return sequence;
+    }
+
+    private int positionOf(long sequence) {
+        return HEADER_SIZE + (int) (((sequence - 1) % slots) * RECORD_SIZE);
+    }
+
+    // crc32 of the record with the crc field left out
+    private int checksum(int position) {
+        CRC32 crc = new CRC32();
+        ByteBuffer record = buffer.duplicate();
+        record.limit(position + R_CRC).position(position);
+        crc.update(record);
+        record.limit(position + RECORD_SIZE).position(position + R_TYPE);
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private void rebuildPending() {
+        pendingSlots.clear();
+        pendingDoses.clear();
+        for (long sequence = replicatedSequence + 1; sequence < nextSequence; sequence++) {
+            BookingEvent event = read(sequence);
+            if (event != null) {
+                addPending(event);
+            }
+        }
+    }
+
+    private void addPending(BookingEvent event) {
+        switch (event.getType()) {
+            case RESERVE:
+                pendingSlots.add(slotKey(event.getCaregiver(), event.getEpochDay()));
+                pendingDoses.merge(doseKey(event), -1, Integer::sum);
+                break;
+            case CANCEL:
+                pendingDoses.merge(doseKey(event), 1, Integer::sum);
+                break;
+            case ADD_DOSES:
+                pendingDoses.merge(doseKey(event), event.getAmount(), Integer::sum);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void removePending(BookingEvent event) {
+        switch (event.getType()) {
+            case RESERVE:
+                pendingSlots.remove(slotKey(event.getCaregiver(), event.getEpochDay()));
+                pendingDoses.merge(doseKey(event), 1, BookingJournal::sumOrRemove);
+                break;
+            case CANCEL:
+                pendingDoses.merge(doseKey(event), -1, BookingJournal::sumOrRemove);
+                break;
+            case ADD_DOSES:
+                pendingDoses.merge(doseKey(event), -event.getAmount(), BookingJournal::sumOrRemove);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static Integer sumOrRemove(Integer a, Integer b) {
+        int sum = a + b;
+        return sum == 0 ? null : sum;
+    }
+
+    // names compare case-insensitively in the database, so they do here too
+    private static String slotKey(String caregiver, int epochDay) {
+        return caregiver.toLowerCase(Locale.ROOT) + "|" + epochDay;
+    }
+
+    private static String doseKey(BookingEvent event) {
+        return doseKey(event.getLocation(), event.getVaccine());
+    }
+
+    private static String doseKey(String location, String vaccine) {
+        return location.toLowerCase(Locale.ROOT) + "|" + vaccine.toLowerCase(Locale.ROOT);
+    }
+
+    private static byte[] encode(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("Name too long for the journal: " + value);
+        }
+        return bytes;
+    }
+
+    // length -1 marks null
+    private void putString(int position, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort(position, (short) -1);
+            return;
+        }
+        buffer.putShort(position, (short) bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(position + 2 + i, bytes[i]);
+        }
+        for (int i = bytes.length; i < MAX_STRING_BYTES; i++) {
+            buffer.put(position + 2 + i, (byte) 0);
+        }
+    }
+
+    private String getString(int position) {
+        short length = buffer.getShort(position);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,268 @@
+package scheduler.journal;
+
+import scheduler.changes.Change;
+import scheduler.changes.ChangeLog;
+import scheduler.db.ConnectionManager;
+import scheduler.log.Log;
+import scheduler.model.Appointment;
+import scheduler.state.SearchCache;
+import scheduler.util.Metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+
+/**
+ * Background thread that applies journaled events to the SQL tables in order, one transaction per event.
+ * The same transaction stores the event's sequence number in JournalReplication, so after a crash the
+ * replicator resumes exactly after the last event the database has, and no event is applied twice.
+ *
+ * An event the database refuses (e.g. availability that was already uploaded, or a reservation whose
+ * dose is gone) is skipped: it is logged, counted in journal.dead_letter and appended as a line to the
+ * dead-letter file so an operator can follow up with the patient. Any other error is retried with
+ * backoff until the database is reachable again.
+ */
+public class JournalReplicator implements Runnable {
+
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    private final BookingJournal journal;
+    // one line per skipped event
+    private final Path deadLetterPath;
+    // told about every applied event, may be null
+    private final SearchCache searchCache;
+    private ConnectionManager cm = null;
+    private Connection con = null;
+
+    private JournalReplicator(BookingJournal journal, Path deadLetterPath, SearchCache searchCache) {
+        this.journal = journal;
+        this.deadLetterPath = deadLetterPath;
+        this.searchCache = searchCache;
+    }
+
+    public static Thread start(BookingJournal journal, Path deadLetterPath, SearchCache searchCache) {
+        Thread thread = new Thread(new JournalReplicator(journal, deadLetterPath, searchCache),
+                "journal-replicator");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        try {
+            journal.skipReplicatedUpTo(retry(this::loadReplicatedSequence));
+            while (true) {
+                BookingEvent event = journal.nextToReplicate();
+                if (event == null) {
+                    break;
+                }
+                retry(() -> {
+                    apply(event);
+                    return null;
+                });
+                journal.markReplicated(event);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            disconnect();
+        }
+    }
+
+    private long loadReplicatedSequence() throws SQLException {
+        String getSequence = "SELECT LastSequence FROM JournalReplication WHERE JournalID = ?";
+        PreparedStatement statement = connection().prepareStatement(getSequence);
+        statement.setString(1, journal.getJournalId());
+        ResultSet resultSet = statement.executeQuery();
+        if (resultSet.next()) {
+            return resultSet.getLong(1);
+        }
+        return 0;
+    }
+
+    private void apply(BookingEvent event) throws SQLException {
+        Connection con = connection();
+        con.setAutoCommit(false);
+        try {
+            Appointment appointment = null;
+            boolean refused = false;
+            switch (event.getType()) {
+                case AVAILABILITY:
+                    applyAvailability(con, event);
+                    break;
+                case ADD_DOSES:
+                    applyAddDoses(con, event);
+                    break;
+                case RESERVE:
+                    appointment = new Appointment.AppointmentBuilder(event.getDate(), event.getCaregiver(),
+                            event.getPatient(), event.getVaccine(), event.getLocation()).build();
+                    // the dose may be gone by now, the booking is refused like any other constraint
+                    refused = !appointment.saveToDB(con);
+                    break;
+                case CANCEL:
+                    appointment = new Appointment.AppointmentGetter(event.getAmount()).get(con);
+                    if (appointment != null && !appointment.cancel(con)) {
+                        appointment = null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (refused) {
+                con.rollback();
+                skip(con, event, "no dose left", null);
+                return;
+            }
+            saveReplicatedSequence(con, event.getSequence());
+            con.commit();
+            updateSearchCache(event, appointment);
+        } catch (SQLException e) {
+            con.rollback();
+            if (!isConstraintViolation(e)) {
+                throw e;
+            }
+            skip(con, event, e.getMessage(), e);
+        }
+    }
+
+    // the database will never accept this event, record it and that we are past it, then move on.
+    // The dead letter goes first: a crash before the commit may write it twice, but never loses it
+    private void skip(Connection con, BookingEvent event, String reason, SQLException cause) throws SQLException {
+        deadLetter(event, reason);
+        saveReplicatedSequence(con, event.getSequence());
+        con.commit();
+        Metrics.increment("journal.dead_letter");
+        Log.error("Journal event refused by the database (" + reason + "): " + event, cause);
+    }
+
+    private void deadLetter(BookingEvent event, String reason) {
+        String line = Instant.now() + "\t" + reason + "\t" + event + System.lineSeparator();
+        try {
+            Files.write(deadLetterPath, line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            Log.error("Error occurred when writing to the dead-letter file " + deadLetterPath + ": " + event, e);
+        }
+    }
+
+    private void updateSearchCache(BookingEvent event, Appointment appointment) {
+        if (searchCache == null) {
+            return;
+        }
+        switch (event.getType()) {
+            case AVAILABILITY:
+                searchCache.onDateChanged(event.getLocation(), event.getDate());
+                break;
+            case ADD_DOSES:
+                searchCache.onStockChanged(event.getLocation(), event.getVaccine(), event.getAmount());
+                break;
+            case RESERVE:
+                searchCache.onDateChanged(event.getLocation(), event.getDate());
+                searchCache.onStockChanged(event.getLocation(), event.getVaccine(), -1);
+                break;
+            case CANCEL:
+                if (appointment != null) {
+                    searchCache.onDateChanged(appointment.getLocation(), appointment.getDate());
+                    searchCache.onStockChanged(appointment.getLocation(), appointment.getVaccineName(), 1);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void applyAvailability(Connection con, BookingEvent event) throws SQLException {
+        String addAvailability = "INSERT INTO Availabilities (Time, Username, Location) VALUES (?, ?, ?)";
+        PreparedStatement statement = con.prepareStatement(addAvailability);
+        statement.setDate(1, event.getDate());
+        statement.setString(2, event.getCaregiver());
+        statement.setString(3, event.getLocation());
+        statement.executeUpdate();
+        ChangeLog.record(con, Change.availability(event.getCaregiver(), event.getDate(), event.getLocation()));
+    }
+
+    private static void applyAddDoses(Connection con, BookingEvent event) throws SQLException {
+        String addDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Location = ? AND Name = ?";
+        PreparedStatement statement = con.prepareStatement(addDoses);
+        statement.setInt(1, event.getAmount());
+        statement.setString(2, event.getLocation());
+        statement.setString(3, event.getVaccine());
+        if (statement.executeUpdate() == 0) {
+            String addVaccine = "INSERT INTO Vaccines (Location, Name, Doses) VALUES (?, ?, ?)";
+            statement = con.prepareStatement(addVaccine);
+            statement.setString(1, event.getLocation());
+            statement.setString(2, event.getVaccine());
+            statement.setInt(3, event.getAmount());
+            statement.executeUpdate();
+        }
+        ChangeLog.record(con, Change.doses(event.getLocation(), event.getVaccine(), event.getAmount()));
+    }
+
+    private void saveReplicatedSequence(Connection con, long sequence) throws SQLException {
+        String updateSequence = "UPDATE JournalReplication SET LastSequence = ? WHERE JournalID = ?";
+        PreparedStatement statement = con.prepareStatement(updateSequence);
+        statement.setLong(1, sequence);
+        statement.setString(2, journal.getJournalId());
+        if (statement.executeUpdate() == 0) {
+            String addSequence = "INSERT INTO JournalReplication VALUES (?, ?)";
+            statement = con.prepareStatement(addSequence);
+            statement.setString(1, journal.getJournalId());
+            statement.setLong(2, sequence);
+            statement.executeUpdate();
+        }
+        ConnectionManager.recordWrite();
+    }
+
+    // integrity constraint violations have SQLState class 23
+    private static boolean isConstraintViolation(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("23");
+    }
+
+    // run the action until it succeeds, reconnecting and backing off after every failure
+    private <T> T retry(SqlAction<T> action) throws InterruptedException {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true) {
+            try {
+                return action.run();
+            } catch (SQLException e) {
+                Metrics.increment("journal.apply_retry");
+                disconnect();
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (con == null) {
+            cm = new ConnectionManager();
+            con = cm.createConnection();
+            if (con == null) {
+                cm = null;
+                throw new SQLException("Could not connect to the database");
+            }
+        }
+        return con;
+    }
+
+    private void disconnect() {
+        if (cm != null) {
+            cm.closeConnection();
+        }
+        cm = null;
+        con = null;
+    }
+
+    private interface SqlAction<T> {
+        T run() throws SQLException;
+    }
+}
@@ -0,0 +1,130 @@
+package scheduler.log;
+
+import scheduler.util.Metrics;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Error log and audit trail: every failure and every command (name, user, outcome, latency) as a line of
+ * JSON in LogDir/scheduler.log, rolled at LogFileMB and keeping LogFiles old files.
+ *
+ * Callers only put a record into a ring buffer of LogBufferSize entries. One background thread drains it
+ * every LogFlushMillis and writes each batch with a single call, so logging costs a command no I/O and no
+ * lock. When the buffer is full the record is dropped and counted in log.dropped rather than waited for.
+ * What the user is shown still goes to System.out; this is for whoever runs the scheduler.
+ */
+public class Log {
+
+    private static final int BATCH_RECORDS = 4096;
+
+    private static final RingBuffer<LogRecord> buffer =
+            new RingBuffer<>(Integer.parseInt(Util.getenvOrDefault("LogBufferSize", "65536")));
+    private static final long flushNanos =
+            TimeUnit.MILLISECONDS.toNanos(Long.parseLong(Util.getenvOrDefault("LogFlushMillis", "200")));
+    // whether the command running on this thread has logged an error
+    private static final ThreadLocal<boolean[]> commandFailed = ThreadLocal.withInitial(() -> new boolean[1]);
+    private static volatile boolean closing = false;
+    private static final Thread writer = startWriter();
+
+    public static void error(String message, Throwable error) {
+        commandFailed.get()[0] = true;
+        offer(LogRecord.error(message, error));
+    }
+
+    // call before running a command, commandFailed() then says whether it logged an error
+    public static void beginCommand() {
+        commandFailed.get()[0] = false;
+    }
+
+    public static boolean commandFailed() {
+        return commandFailed.get()[0];
+    }
+
+    public static void audit(String command, String user, String outcome, long latencyNanos) {
+        offer(LogRecord.audit(command, user, outcome, latencyNanos));
+    }
+
+    private static void offer(LogRecord record) {
+        if (!buffer.offer(record)) {
+            Metrics.increment("log.dropped");
+        }
+    }
+
+    private static Thread startWriter() {
+        Thread thread = new Thread(Log::drain, "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+        // write out whatever is still buffered when the scheduler exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            closing = true;
+            LockSupport.unpark(thread);
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "log-shutdown"));
+        return thread;
+    }
+
+    private static void drain() {
+        RollingFile file = null;
+        try {
+            file = new RollingFile(Paths.get(Util.getenvOrDefault("LogDir", "logs")), "scheduler.log",
+                    Long.parseLong(Util.getenvOrDefault("LogFileMB", "16")) * 1024 * 1024,
+                    Integer.parseInt(Util.getenvOrDefault("LogFiles", "5")));
+        } catch (IOException e) {
+            System.err.println("Error occurred when opening the log, logging to stderr");
+        }
+        StringBuilder batch = new StringBuilder(1 << 16);
+        while (true) {
+            boolean last = closing;
+            int records = 0;
+            LogRecord record;
+            while (records < BATCH_RECORDS && (record = buffer.poll()) != null) {
+                record.appendJson(batch);
+                records++;
+            }
+            if (records > 0) {
+                write(file, batch);
+                batch.setLength(0);
+                Metrics.add("log.records", records);
+                Metrics.increment("log.batches");
+            }
+            if (records == BATCH_RECORDS) {
+                continue;
+            }
+            if (last) {
+                break;
+            }
+            LockSupport.parkNanos(flushNanos);
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+                // exiting anyway
+            }
+        }
+    }
+
+    private static void write(RollingFile file, StringBuilder batch) {
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        if (file != null) {
+            try {
+                file.write(ByteBuffer.wrap(bytes));
+                return;
+            } catch (IOException e) {
+                Metrics.increment("log.write_errors");
+            }
+        }
+        System.err.write(bytes, 0, bytes.length);
+        System.err.flush();
+    }
+}
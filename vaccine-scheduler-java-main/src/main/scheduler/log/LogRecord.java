@@ -0,0 +1,107 @@
+package scheduler.log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.Locale;
+
+/**
+ * One entry of the log. Records are created on the request thread with the raw values only; turning them
+ * into a JSON line, stack trace included, happens on the log thread.
+ */
+class LogRecord {
+
+    enum Type {
+        AUDIT, ERROR
+    }
+
+    private final Type type;
+    private final long timeMillis;
+    private final String thread;
+    // AUDIT
+    private final String command;
+    private final String user;
+    private final String outcome;
+    private final long latencyNanos;
+    // ERROR
+    private final String message;
+    private final Throwable error;
+
+    private LogRecord(Type type, String command, String user, String outcome, long latencyNanos, String message,
+                      Throwable error) {
+        this.type = type;
+        this.timeMillis = System.currentTimeMillis();
+        this.thread = Thread.currentThread().getName();
+        this.command = command;
+        this.user = user;
+        this.outcome = outcome;
+        this.latencyNanos = latencyNanos;
+        this.message = message;
+        this.error = error;
+    }
+
+    static LogRecord audit(String command, String user, String outcome, long latencyNanos) {
+        return new LogRecord(Type.AUDIT, command, user, outcome, latencyNanos, null, null);
+    }
+
+    static LogRecord error(String message, Throwable error) {
+        return new LogRecord(Type.ERROR, null, null, null, 0, message, error);
+    }
+
+    // append this record as one line of JSON
+    void appendJson(StringBuilder out) {
+        out.append("{\"time\":\"").append(Instant.ofEpochMilli(timeMillis)).append('"');
+        out.append(",\"type\":\"").append(type.name().toLowerCase(Locale.ROOT)).append('"');
+        field(out, "thread", thread);
+        if (type == Type.AUDIT) {
+            field(out, "command", command);
+            field(out, "user", user);
+            field(out, "outcome", outcome);
+            out.append(",\"latency_ms\":").append(String.format(Locale.ROOT, "%.3f", latencyNanos / 1e6));
+        } else {
+            field(out, "message", message);
+            if (error != null) {
+                StringWriter trace = new StringWriter();
+                error.printStackTrace(new PrintWriter(trace));
+                field(out, "exception", trace.toString());
+            }
+        }
+        out.append("}\n");
+    }
+
+    private static void field(StringBuilder out, String name, String value) {
+        out.append(",\"").append(name).append("\":");
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
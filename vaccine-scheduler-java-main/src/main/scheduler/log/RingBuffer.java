@@ -0,0 +1,68 @@
+package scheduler.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue for many producers and one consumer. Each slot carries a sequence number saying
+ * whether it is free for the producer whose turn it is or filled for the consumer, so offer() is one
+ * compare-and-set and never blocks: when the buffer is full it returns false and the caller drops the item.
+ */
+class RingBuffer<T> {
+
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // next position to claim, shared by the producers
+    private final AtomicLong head = new AtomicLong();
+    // next position to read, consumer only
+    private long tail = 0;
+
+    // capacity is rounded up to a power of two
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.items = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    boolean offer(T item) {
+        long position = head.get();
+        while (true) {
+            long diff = sequences.get((int) position & mask) - position;
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = head.get();
+            } else if (diff < 0) {
+                // the consumer has not freed this slot yet
+                return false;
+            } else {
+                position = head.get();
+            }
+        }
+        int slot = (int) position & mask;
+        items[slot] = item;
+        // publishes the item to the consumer
+        sequences.set(slot, position + 1);
+        return true;
+    }
+
+    // the oldest item, or null if there is none; consumer thread only
+    @SuppressWarnings("unchecked")
+    T poll() {
+        int slot = (int) tail & mask;
+        if (sequences.get(slot) != tail + 1) {
+            return null;
+        }
+        T item = (T) items[slot];
+        items[slot] = null;
+        sequences.set(slot, tail + items.length);
+        tail++;
+        return item;
+    }
+}
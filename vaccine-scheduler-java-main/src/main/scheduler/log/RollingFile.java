@@ -0,0 +1,62 @@
+package scheduler.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends to name in dir, and once it grows past maxBytes renames it to name.1 (name.1 to name.2 and so
+ * on, keeping at most files of them) and starts a new one.
+ */
+class RollingFile {
+
+    private final Path dir;
+    private final String name;
+    private final long maxBytes;
+    private final int files;
+    private FileChannel channel;
+
+    RollingFile(Path dir, String name, long maxBytes, int files) throws IOException {
+        this.dir = dir;
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.files = files;
+        Files.createDirectories(dir);
+        open();
+    }
+
+    void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        if (channel.size() >= maxBytes) {
+            roll();
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(dir.resolve(name), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private void roll() throws IOException {
+        channel.close();
+        Files.deleteIfExists(dir.resolve(name + "." + files));
+        for (int i = files - 1; i >= 1; i--) {
+            Path older = dir.resolve(name + "." + i);
+            if (Files.exists(older)) {
+                Files.move(older, dir.resolve(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(dir.resolve(name), dir.resolve(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        open();
+    }
+}
@@ -0,0 +1,472 @@
+package scheduler.model;
+
+import scheduler.changes.Change;
+import scheduler.changes.ChangeLog;
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardedConnections;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class Appointment {
+    private int appointmentId;
+    private final Date date;
+    private final String caregiverUsername;
+    private final String patientUsername;
+    private final String vaccineName;
+    // the clinic it takes place at, its dose comes from that clinic's stock
+    private final String location;
+
+    private Appointment(AppointmentBuilder builder) {
+        this.appointmentId = 0;
+        this.date = builder.date;
+        this.caregiverUsername = builder.caregiverUsername;
+        this.patientUsername = builder.patientUsername;
+        this.vaccineName = builder.vaccineName;
+        this.location = builder.location;
+    }
+
+    private Appointment(AppointmentGetter getter) {
+        this.appointmentId = getter.appointmentId;
+        this.date = getter.date;
+        this.caregiverUsername = getter.caregiverUsername;
+        this.patientUsername = getter.patientUsername;
+        this.vaccineName = getter.vaccineName;
+        this.location = getter.location;
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getCaregiverUsername() {
+        return caregiverUsername;
+    }
+
+    public String getPatientUsername() {
+        return patientUsername;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    // returns false if there is no dose of the vaccine left at the location, nothing was written
+    public boolean saveToDB() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        ShardedConnections shards = new ShardedConnections(con);
+        try {
+            return saveToDB(shards);
+        } catch (SQLException e) {
+            shards.rollback();
+            throw new SQLException();
+        } finally {
+            shards.close();
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Book on the database that owns the date and commit. Without shards this is one transaction. With
+     * them the dose is taken on the primary and committed first, then the appointment is inserted on its
+     * shard, and the dose is handed back if that fails: a crash in between loses a dose, never overbooks.
+     * @return false if there is no dose of the vaccine left at the location, nothing was written
+     */
+    public boolean saveToDB(ShardedConnections shards) throws SQLException {
+        Connection con = shards.primary();
+        Connection shardCon = shards.forDate(this.date);
+        con.setAutoCommit(false);
+        if (shardCon == con) {
+            if (!saveToDB(con)) {
+                con.rollback();
+                return false;
+            }
+            con.commit();
+            return true;
+        }
+        if (!takeDoses(con, this.location, this.vaccineName, 1)) {
+            con.rollback();
+            return false;
+        }
+        con.commit();
+        con.setAutoCommit(true);
+        try {
+            shardCon.setAutoCommit(false);
+            insert(shardCon);
+            shardCon.commit();
+            shardCon.setAutoCommit(true);
+        } catch (SQLException e) {
+            shards.rollback();
+            takeDoses(con, this.location, this.vaccineName, -1);
+            throw e;
+        }
+        ConnectionManager.recordWrite();
+        return true;
+    }
+
+    /**
+     * Take one dose of the vaccine and insert the appointment. The caller owns the transaction and must roll
+     * it back if this returns false.
+     * @return false if there is no dose of the vaccine left at the location
+     */
+    public boolean saveToDB(Connection con) throws SQLException {
+        // assuming each reservation uses one dose
+        if (!takeDoses(con, this.location, this.vaccineName, 1)) {
+            return false;
+        }
+        insert(con);
+        ConnectionManager.recordWrite();
+        return true;
+    }
+
+    // the appointment row and its change log entry, which on other instances also accounts for the dose
+    private void insert(Connection con) throws SQLException {
+        String addAppointment = "INSERT INTO Appointment (AppointmentDate, CaregiverUsername, PatientUsername, VaccineName, " +
+                "Location) VALUES (?, ?, ?, ?, ?)";
+        PreparedStatement statement = con.prepareStatement(addAppointment, Statement.RETURN_GENERATED_KEYS);
+        statement.setDate(1, this.date);
+        statement.setString(2, this.caregiverUsername);
+        statement.setString(3, this.patientUsername);
+        statement.setString(4, this.vaccineName);
+        statement.setString(5, this.location);
+        statement.executeUpdate();
+        ResultSet keys = statement.getGeneratedKeys();
+        if (keys.next()) {
+            this.appointmentId = toGlobalId(keys.getInt(1), ConnectionManager.shardOf(this.date));
+        }
+        ChangeLog.record(con, Change.appointmentCreated(this.appointmentId, this.date, this.caregiverUsername,
+                this.patientUsername, this.vaccineName, this.location));
+    }
+
+    // a negative number hands doses back; returns false if there were fewer than that many left
+    private static boolean takeDoses(Connection con, String location, String vaccineName, int doses)
+            throws SQLException {
+        String removeDoses = "UPDATE Vaccines SET Doses = Doses - ? WHERE Location = ? AND Name = ? AND Doses >= ?";
+        PreparedStatement statement = con.prepareStatement(removeDoses);
+        statement.setInt(1, doses);
+        statement.setString(2, location);
+        statement.setString(3, vaccineName);
+        statement.setInt(4, doses);
+        return statement.executeUpdate() > 0;
+    }
+
+    /**
+     * Insert several appointments with one batch and take their doses with one conditional update per vaccine
+     * and location.
+     * The caller owns the transaction and must roll it back if this returns false. The appointments must have
+     * distinct (caregiver, date) pairs, which is how their ids are read back afterwards.
+     * @return false if some vaccine does not have enough doses left for all of its appointments
+     */
+    public static boolean saveAllToDB(Connection con, List<Appointment> appointments) throws SQLException {
+        if (!takeAllDoses(con, appointments)) {
+            return false;
+        }
+        insertAll(con, appointments);
+        ConnectionManager.recordWrite();
+        return true;
+    }
+
+    /**
+     * saveAllToDB on the databases that own the dates, committing. With shards the doses are taken on the
+     * primary first and every shard then gets one batch in its own transaction; if a shard fails, the
+     * shards already written are cancelled again and the doses handed back.
+     * @return false if some vaccine does not have enough doses left, nothing was written
+     */
+    public static boolean saveAllToDB(ShardedConnections shards, List<Appointment> appointments)
+            throws SQLException {
+        Connection con = shards.primary();
+        con.setAutoCommit(false);
+        if (!ConnectionManager.isSharded()) {
+            if (!saveAllToDB(con, appointments)) {
+                con.rollback();
+                return false;
+            }
+            con.commit();
+            return true;
+        }
+        if (!takeAllDoses(con, appointments)) {
+            con.rollback();
+            return false;
+        }
+        con.commit();
+        con.setAutoCommit(true);
+
+        Map<Integer, List<Appointment>> byShard = new TreeMap<>();
+        for (Appointment appointment : appointments) {
+            byShard.computeIfAbsent(ConnectionManager.shardOf(appointment.date), k -> new ArrayList<>())
+                    .add(appointment);
+        }
+        List<Appointment> saved = new ArrayList<>();
+        try {
+            for (Map.Entry<Integer, List<Appointment>> shard : byShard.entrySet()) {
+                Connection shardCon = shards.forShard(shard.getKey());
+                shardCon.setAutoCommit(false);
+                insertAll(shardCon, shard.getValue());
+                shardCon.commit();
+                shardCon.setAutoCommit(true);
+                saved.addAll(shard.getValue());
+            }
+        } catch (SQLException e) {
+            shards.rollback();
+            for (Appointment appointment : saved) {
+                Connection shardCon = shards.forDate(appointment.date);
+                shardCon.setAutoCommit(false);
+                appointment.delete(shardCon);
+                shardCon.commit();
+                shardCon.setAutoCommit(true);
+            }
+            for (Map.Entry<String, Map<String, Integer>> location : dosesNeeded(appointments).entrySet()) {
+                for (Map.Entry<String, Integer> vaccine : location.getValue().entrySet()) {
+                    takeDoses(con, location.getKey(), vaccine.getKey(), -vaccine.getValue());
+                }
+            }
+            throw e;
+        }
+        ConnectionManager.recordWrite();
+        return true;
+    }
+
+    // location -> vaccine -> doses the appointments take from it
+    private static Map<String, Map<String, Integer>> dosesNeeded(List<Appointment> appointments) {
+        Map<String, Map<String, Integer>> dosesNeeded = new HashMap<>();
+        for (Appointment appointment : appointments) {
+            dosesNeeded.computeIfAbsent(appointment.location, k -> new HashMap<>())
+                    .merge(appointment.vaccineName, 1, Integer::sum);
+        }
+        return dosesNeeded;
+    }
+
+    private static boolean takeAllDoses(Connection con, List<Appointment> appointments) throws SQLException {
+        String removeDoses = "UPDATE Vaccines SET Doses = Doses - ? WHERE Location = ? AND Name = ? AND Doses >= ?";
+        PreparedStatement statement = con.prepareStatement(removeDoses);
+        for (Map.Entry<String, Map<String, Integer>> location : dosesNeeded(appointments).entrySet()) {
+            for (Map.Entry<String, Integer> vaccine : location.getValue().entrySet()) {
+                statement.setInt(1, vaccine.getValue());
+                statement.setString(2, location.getKey());
+                statement.setString(3, vaccine.getKey());
+                statement.setInt(4, vaccine.getValue());
+                if (statement.executeUpdate() == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void insertAll(Connection con, List<Appointment> appointments) throws SQLException {
+        String addAppointment = "INSERT INTO Appointment (AppointmentDate, CaregiverUsername, PatientUsername, VaccineName, " +
+                "Location) VALUES (?, ?, ?, ?, ?)";
+        PreparedStatement statement = con.prepareStatement(addAppointment);
+        for (Appointment appointment : appointments) {
+            statement.setDate(1, appointment.date);
+            statement.setString(2, appointment.caregiverUsername);
+            statement.setString(3, appointment.patientUsername);
+            statement.setString(4, appointment.vaccineName);
+            statement.setString(5, appointment.location);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+
+        // generated keys are not returned for batches, read the ids back by caregiver and date instead
+        Map<String, Appointment> bySlot = new HashMap<>();
+        for (Appointment appointment : appointments) {
+            bySlot.put(appointment.date + "|" + appointment.caregiverUsername.toLowerCase(Locale.ROOT), appointment);
+        }
+        String placeholders = String.join(", ", Collections.nCopies(appointments.size(), "?"));
+        String getIds = "SELECT AppointmentID, AppointmentDate, CaregiverUsername FROM Appointment " +
+                "WHERE AppointmentDate IN (" + placeholders + ") AND CaregiverUsername IN (" + placeholders + ")";
+        statement = con.prepareStatement(getIds);
+        for (int i = 0; i < appointments.size(); i++) {
+            statement.setDate(i + 1, appointments.get(i).date);
+            statement.setString(appointments.size() + i + 1, appointments.get(i).caregiverUsername);
+        }
+        ResultSet resultSet = statement.executeQuery();
+        while (resultSet.next()) {
+            Appointment appointment = bySlot.get(resultSet.getDate(2) + "|" +
+                    resultSet.getString(3).toLowerCase(Locale.ROOT));
+            if (appointment != null) {
+                appointment.appointmentId = toGlobalId(resultSet.getInt(1), ConnectionManager.shardOf(appointment.date));
+            }
+        }
+        for (Appointment appointment : appointments) {
+            ChangeLog.record(con, Change.appointmentCreated(appointment.appointmentId, appointment.date,
+                    appointment.caregiverUsername, appointment.patientUsername, appointment.vaccineName,
+                    appointment.location));
+        }
+    }
+
+    // returns false if the appointment was already gone
+    public boolean cancel() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        ShardedConnections shards = new ShardedConnections(con);
+        try {
+            return cancel(shards);
+        } catch (SQLException e) {
+            shards.rollback();
+            throw new SQLException();
+        } finally {
+            shards.close();
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * cancel on the databases that own the appointment and its vaccine, committing. With shards the row is
+     * deleted on its shard first and the dose handed back on the primary afterwards.
+     */
+    public boolean cancel(ShardedConnections shards) throws SQLException {
+        Connection con = shards.primary();
+        Connection shardCon = shards.forDate(this.date);
+        if (shardCon == con) {
+            con.setAutoCommit(false);
+            boolean cancelled = cancel(con);
+            con.commit();
+            return cancelled;
+        }
+        shardCon.setAutoCommit(false);
+        boolean cancelled = delete(shardCon);
+        shardCon.commit();
+        shardCon.setAutoCommit(true);
+        if (cancelled) {
+            takeDoses(con, this.location, this.vaccineName, -1);
+            ConnectionManager.recordWrite();
+        }
+        return cancelled;
+    }
+
+    // delete the appointment and give its dose back, the caller owns the transaction
+    public boolean cancel(Connection con) throws SQLException {
+        if (!delete(con)) {
+            // already cancelled, don't hand the dose back twice
+            return false;
+        }
+        takeDoses(con, this.location, this.vaccineName, -1);
+        ConnectionManager.recordWrite();
+        return true;
+    }
+
+    private boolean delete(Connection con) throws SQLException {
+        String removeAppointment = "DELETE FROM Appointment WHERE AppointmentID = ?";
+        PreparedStatement statement = con.prepareStatement(removeAppointment);
+        statement.setInt(1, toLocalId(this.appointmentId));
+        if (statement.executeUpdate() == 0) {
+            return false;
+        }
+        ChangeLog.record(con, Change.appointmentCancelled(this.appointmentId, this.date, this.caregiverUsername,
+                this.patientUsername, this.vaccineName, this.location));
+        return true;
+    }
+
+    /*
+     * With shards every database numbers its own appointments, so the id shown to users carries the shard
+     * in its low bits: id = local id * MAX_SHARDS + shard. Without shards the two are the same.
+     */
+    public static int toGlobalId(int localId, int shard) {
+        return ConnectionManager.isSharded() ? localId * ConnectionManager.MAX_SHARDS + shard : localId;
+    }
+
+    public static int toLocalId(int appointmentId) {
+        return ConnectionManager.isSharded() ? Math.floorDiv(appointmentId, ConnectionManager.MAX_SHARDS) : appointmentId;
+    }
+
+    public static int shardOf(int appointmentId) {
+        return ConnectionManager.isSharded() ? Math.floorMod(appointmentId, ConnectionManager.MAX_SHARDS) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Appointment{" +
+                "appointmentId=" + appointmentId +
+                ", date=" + date +
+                ", caregiverUsername='" + caregiverUsername + '\'' +
+                ", patientUsername='" + patientUsername + '\'' +
+                ", vaccineName='" + vaccineName + '\'' +
+                ", location='" + location + '\'' +
+                '}';
+    }
+
+    public static class AppointmentBuilder {
+        private final Date date;
+        private final String caregiverUsername;
+        private final String patientUsername;
+        private final String vaccineName;
+        private final String location;
+
+        public AppointmentBuilder(Date date, String caregiverUsername, String patientUsername, String vaccineName,
+                                  String location) {
+            this.date = date;
+            this.caregiverUsername = caregiverUsername;
+            this.patientUsername = patientUsername;
+            this.vaccineName = vaccineName;
+            this.location = location;
+        }
+
+        public Appointment build() {
+            return new Appointment(this);
+        }
+    }
+
+    public static class AppointmentGetter {
+        private final int appointmentId;
+        private Date date;
+        private String caregiverUsername;
+        private String patientUsername;
+        private String vaccineName;
+        private String location;
+
+        public AppointmentGetter(int appointmentId) {
+            this.appointmentId = appointmentId;
+        }
+
+        public Appointment get() throws SQLException {
+            int shard = shardOf(this.appointmentId);
+            if (shard >= ConnectionManager.shardCount()) {
+                return null;
+            }
+            ConnectionManager cm = ConnectionManager.forShard(shard);
+            Connection con = cm.createConnection();
+            try {
+                return get(con);
+            } catch (SQLException e) {
+                throw new SQLException();
+            } finally {
+                cm.closeConnection();
+            }
+        }
+
+        // con must be the database holding the appointment
+        public Appointment get(Connection con) throws SQLException {
+            String getAppointment = "SELECT AppointmentDate, CaregiverUsername, PatientUsername, VaccineName, " +
+                    "Location FROM Appointment WHERE AppointmentID = ?";
+            PreparedStatement statement = con.prepareStatement(getAppointment);
+            statement.setInt(1, toLocalId(this.appointmentId));
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                this.date = resultSet.getDate("AppointmentDate");
+                this.caregiverUsername = resultSet.getString("CaregiverUsername");
+                this.patientUsername = resultSet.getString("PatientUsername");
+                this.vaccineName = resultSet.getString("VaccineName");
+                this.location = resultSet.getString("Location");
+                return new Appointment(this);
+            }
+            return null;
+        }
+    }
+}
@@ -1,26 +1,36 @@
 package scheduler.model;
 
+import scheduler.changes.Change;
+import scheduler.changes.ChangeLog;
 import scheduler.db.ConnectionManager;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
 
 public class Caregiver {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    // "algorithm:iterations" the hash was created with, see PasswordHasher
+    private final String hashParams;
+    // the clinic the caregiver works at unless they pick another one for the session
+    private String location;
 
     private Caregiver(CaregiverBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
+        this.location = Location.DEFAULT;
     }
 
     private Caregiver(CaregiverGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
+        this.location = getter.location;
     }
 
     // Getters
@@ -36,35 +46,82 @@ public class Caregiver {
         return hash;
     }
 
+    public String getHashParams() {
+        return hashParams;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
+        String addCaregiver = "INSERT INTO Caregivers (Username, Salt, Hash, HashParams, Location) VALUES (?, ?, ?, ?, ?)";
         try {
             PreparedStatement statement = con.prepareStatement(addCaregiver);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
+            statement.setString(4, this.hashParams);
+            statement.setString(5, this.location);
+            con.setAutoCommit(false);
             statement.executeUpdate();
+            ChangeLog.record(con, Change.caregiverCreated(this.username));
+            con.commit();
+            ConnectionManager.recordWrite();
         } catch (SQLException e) {
+            con.rollback();
             throw new SQLException();
         } finally {
             cm.closeConnection();
         }
     }
 
-    public void uploadAvailability(Date d) throws SQLException {
+    // make location the caregiver's usual clinic
+    public void updateLocation(String location) throws SQLException {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+        String updateCaregiver = "UPDATE Caregivers SET Location = ? WHERE Username = ?";
+        try {
+            PreparedStatement statement = con.prepareStatement(updateCaregiver);
+            statement.setString(1, location);
+            statement.setString(2, this.username);
+            con.setAutoCommit(false);
+            statement.executeUpdate();
+            ChangeLog.record(con, Change.caregiverLocation(this.username, location));
+            con.commit();
+            ConnectionManager.recordWrite();
+            this.location = location;
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // the caregiver works at location on d
+    public void uploadAvailability(Date d, String location) throws SQLException {
+        // availabilities live with the appointments of their date
+        ConnectionManager cm = ConnectionManager.forShard(ConnectionManager.shardOf(d));
+        Connection con = cm.createConnection();
+
+        String addAvailability = "INSERT INTO Availabilities (Time, Username, Location) VALUES (?, ?, ?)";
         try {
             PreparedStatement statement = con.prepareStatement(addAvailability);
             statement.setDate(1, d);
             statement.setString(2, this.username);
+            statement.setString(3, location);
+            con.setAutoCommit(false);
             statement.executeUpdate();
+            ChangeLog.record(con, Change.availability(this.username, d, location));
+            con.commit();
+            ConnectionManager.recordWrite();
         } catch (SQLException e) {
+            con.rollback();
             throw new SQLException();
         } finally {
             cm.closeConnection();
@@ -75,11 +132,13 @@ public class Caregiver {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final String hashParams;
 
-        public CaregiverBuilder(String username, byte[] salt, byte[] hash) {
+        public CaregiverBuilder(String username, byte[] salt, byte[] hash, String hashParams) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashParams = hashParams;
         }
 
         public Caregiver build() {
@@ -92,6 +151,8 @@ public class Caregiver {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private String hashParams;
+        private String location;
 
         public CaregiverGetter(String username, String password) {
             this.username = username;
@@ -99,30 +160,65 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
+            // read what verify() needs and give the connection back, hashing takes far longer than the query
+            if (!read()) {
+                return null;
+            }
+            // check if the password matches, PasswordHasher takes care of the padding on old hashes
+            if (!PasswordHasher.verify(password, salt, hash, hashParams)) {
+                return null;
+            }
+            // the password is right, upgrade hashes created with old parameters while we have it
+            if (PasswordHasher.needsRehash(hashParams)) {
+                byte[] newSalt = Util.generateSalt();
+                byte[] newHash = PasswordHasher.hash(password, newSalt);
+                String newHashParams = PasswordHasher.currentParams();
+                updateHash(newSalt, newHash, newHashParams);
+                this.salt = newSalt;
+                this.hash = newHash;
+                this.hashParams = newHashParams;
+            }
+            return new Caregiver(this);
+        }
+
+        // false if there is no such caregiver
+        private boolean read() throws SQLException {
             ConnectionManager cm = new ConnectionManager();
             Connection con = cm.createConnection();
 
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
+            String getCaregiver = "SELECT Salt, Hash, HashParams, Location FROM Caregivers WHERE Username = ?";
             try {
                 PreparedStatement statement = con.prepareStatement(getCaregiver);
                 statement.setString(1, this.username);
                 ResultSet resultSet = statement.executeQuery();
                 while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
+                    this.salt = resultSet.getBytes("Salt");
+                    this.hash = resultSet.getBytes("Hash");
+                    this.hashParams = resultSet.getString("HashParams");
+                    this.location = resultSet.getString("Location");
+                    return true;
                 }
-                return null;
+                return false;
+            } catch (SQLException e) {
+                throw new SQLException();
+            } finally {
+                cm.closeConnection();
+            }
+        }
+
+        private void updateHash(byte[] salt, byte[] hash, String hashParams) throws SQLException {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+
+            String updateCaregiver = "UPDATE Caregivers SET Salt = ?, Hash = ?, HashParams = ? WHERE Username = ?";
+            try {
+                PreparedStatement statement = con.prepareStatement(updateCaregiver);
+                statement.setBytes(1, salt);
+                statement.setBytes(2, hash);
+                statement.setString(3, hashParams);
+                statement.setString(4, this.username);
+                statement.executeUpdate();
+                ConnectionManager.recordWrite();
             } catch (SQLException e) {
                 throw new SQLException();
             } finally {
@@ -0,0 +1,181 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A clinic. Caregivers work at one per day, and stock and appointments belong to one, so bookings at
+ * different clinics never compete for the same rows. Coordinates are optional and only used to find the
+ * nearest other clinics when one has nothing left.
+ */
+public class Location {
+    // the clinic every existing row belongs to, see create.sql
+    public static final String DEFAULT = "main";
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private final String name;
+    private final Double latitude;
+    private final Double longitude;
+
+    private Location(LocationBuilder builder) {
+        this.name = builder.name;
+        this.latitude = builder.latitude;
+        this.longitude = builder.longitude;
+    }
+
+    private Location(String name, Double latitude, Double longitude) {
+        this.name = name;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    public boolean hasCoordinates() {
+        return latitude != null && longitude != null;
+    }
+
+    // great-circle distance in kilometres, both locations need coordinates
+    public double distanceTo(Location other) {
+        double lat1 = Math.toRadians(this.latitude);
+        double lat2 = Math.toRadians(other.latitude);
+        double dLat = lat2 - lat1;
+        double dLon = Math.toRadians(other.longitude - this.longitude);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    public void saveToDB() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+
+        String addLocation = "INSERT INTO Locations (Name, Latitude, Longitude) VALUES (?, ?, ?)";
+        try {
+            PreparedStatement statement = con.prepareStatement(addLocation);
+            statement.setString(1, this.name);
+            setCoordinate(statement, 2, this.latitude);
+            setCoordinate(statement, 3, this.longitude);
+            statement.executeUpdate();
+            ConnectionManager.recordWrite();
+        } catch (SQLException e) {
+            throw new SQLException();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static void setCoordinate(PreparedStatement statement, int index, Double value) throws SQLException {
+        if (value != null) {
+            statement.setDouble(index, value);
+        } else {
+            statement.setNull(index, Types.DOUBLE);
+        }
+    }
+
+    /**
+     * The names of up to count other locations closest to origin, nearest first. Empty if origin has no
+     * coordinates, locations without them are never picked.
+     */
+    public static List<String> nearest(Location origin, int count, Connection con) throws SQLException {
+        List<String> names = new ArrayList<>();
+        if (!origin.hasCoordinates() || count <= 0) {
+            return names;
+        }
+        List<Location> candidates = new ArrayList<>();
+        ResultSet resultSet = con.createStatement().executeQuery(
+                "SELECT Name, Latitude, Longitude FROM Locations WHERE Latitude IS NOT NULL AND Longitude IS NOT NULL");
+        while (resultSet.next()) {
+            Location location = new Location(resultSet.getString(1), resultSet.getDouble(2), resultSet.getDouble(3));
+            if (!location.name.equalsIgnoreCase(origin.name)) {
+                candidates.add(location);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(origin::distanceTo));
+        for (int i = 0; i < candidates.size() && i < count; i++) {
+            names.add(candidates.get(i).name);
+        }
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        return "Location{" +
+                "name='" + name + '\'' +
+                ", latitude=" + latitude +
+                ", longitude=" + longitude +
+                '}';
+    }
+
+    public static class LocationBuilder {
+        private final String name;
+        private final Double latitude;
+        private final Double longitude;
+
+        public LocationBuilder(String name, Double latitude, Double longitude) {
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        public Location build() {
+            return new Location(this);
+        }
+    }
+
+    public static class LocationGetter {
+        private final String name;
+
+        public LocationGetter(String name) {
+            this.name = name;
+        }
+
+        public Location get() throws SQLException {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
+            try {
+                return get(con);
+            } catch (SQLException e) {
+                throw new SQLException();
+            } finally {
+                cm.closeConnection();
+            }
+        }
+
+        // the location as stored, or null if there is none by that name
+        public Location get(Connection con) throws SQLException {
+            String getLocation = "SELECT Name, Latitude, Longitude FROM Locations WHERE Name = ?";
+            PreparedStatement statement = con.prepareStatement(getLocation);
+            statement.setString(1, this.name);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                double latitude = resultSet.getDouble(2);
+                Double storedLatitude = resultSet.wasNull() ? null : latitude;
+                double longitude = resultSet.getDouble(3);
+                Double storedLongitude = resultSet.wasNull() ? null : longitude;
+                return new Location(resultSet.getString(1), storedLatitude, storedLongitude);
+            }
+            return null;
+        }
+    }
+}
@@ -1,25 +1,31 @@
 package scheduler.model;
 
+import scheduler.changes.Change;
+import scheduler.changes.ChangeLog;
 import scheduler.db.ConnectionManager;
+import scheduler.util.PasswordHasher;
 import scheduler.util.Util;
 
 import java.sql.*;
-import java.util.Arrays;
 public class Patient {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
+    // "algorithm:iterations" the hash was created with, see PasswordHasher
+    private final String hashParams;
 
     private Patient(PatientBuilder builder) {
         this.username = builder.username;
         this.salt = builder.salt;
         this.hash = builder.hash;
+        this.hashParams = builder.hashParams;
     }
 
     private Patient(PatientGetter getter) {
         this.username = getter.username;
         this.salt = getter.salt;
         this.hash = getter.hash;
+        this.hashParams = getter.hashParams;
     }
 
     // Getters
@@ -35,18 +41,28 @@ public class Patient {
         return hash;
     }
 
+    public String getHashParams() {
+        return hashParams;
+    }
+
     public void saveToDB() throws SQLException {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addPatient = "INSERT INTO Patients VALUES (? , ?, ?)";
+        String addPatient = "INSERT INTO Patients (Username, Salt, Hash, HashParams) VALUES (?, ?, ?, ?)";
         try {
             PreparedStatement statement = con.prepareStatement(addPatient);
             statement.setString(1, this.username);
             statement.setBytes(2, this.salt);
             statement.setBytes(3, this.hash);
+            statement.setString(4, this.hashParams);
+            con.setAutoCommit(false);
             statement.executeUpdate();
+            ChangeLog.record(con, Change.patientCreated(this.username));
+            con.commit();
+            ConnectionManager.recordWrite();
         } catch (SQLException e) {
+            con.rollback();
             throw new SQLException();
         } finally {
             cm.closeConnection();
@@ -54,15 +70,16 @@ public class Patient {
     }
 
     public void uploadAvailability(Date d) throws SQLException { // maybe not needed?
-        ConnectionManager cm = new ConnectionManager();
+        ConnectionManager cm = ConnectionManager.forShard(ConnectionManager.shardOf(d));
         Connection con = cm.createConnection();
 
-        String addAvailability = "INSERT INTO Availabilities VALUES (?, ?)";
+        String addAvailability = "INSERT INTO Availabilities (Time, Username) VALUES (?, ?)";
         try {
             PreparedStatement statement = con.prepareStatement(addAvailability);
             statement.setDate(1, d);
             statement.setString(2, this.username);
             statement.executeUpdate();
+            ConnectionManager.recordWrite();
         } catch (SQLException e) {
             throw new SQLException();
         } finally {
@@ -74,11 +91,13 @@ public class Patient {
         private final String username;
         private final byte[] salt;
         private final byte[] hash;
+        private final String hashParams;
 
-        public PatientBuilder(String username, byte[] salt, byte[] hash) {
+        public PatientBuilder(String username, byte[] salt, byte[] hash, String hashParams) {
             this.username = username;
             this.salt = salt;
             this.hash = hash;
+            this.hashParams = hashParams;
         }
 
         public Patient build() {
@@ -91,6 +110,7 @@ public class Patient {
         private final String password;
         private byte[] salt;
         private byte[] hash;
+        private String hashParams;
 
         public PatientGetter(String username, String password) {
             this.username = username;
@@ -98,37 +118,69 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
+            // read what verify() needs and give the connection back, hashing takes far longer than the query
+            if (!read()) {
+                return null;
+            }
+            // check if the password matches, PasswordHasher takes care of the padding on old hashes
+            if (!PasswordHasher.verify(password, salt, hash, hashParams)) {
+                return null;
+            }
+            // the password is right, upgrade hashes created with old parameters while we have it
+            if (PasswordHasher.needsRehash(hashParams)) {
+                byte[] newSalt = Util.generateSalt();
+                byte[] newHash = PasswordHasher.hash(password, newSalt);
+                String newHashParams = PasswordHasher.currentParams();
+                updateHash(newSalt, newHash, newHashParams);
+                this.salt = newSalt;
+                this.hash = newHash;
+                this.hashParams = newHashParams;
+            }
+            return new Patient(this);
+        }
+
+        // false if there is no such patient
+        private boolean read() throws SQLException {
             ConnectionManager cm = new ConnectionManager();
             Connection con = cm.createConnection();
 
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE username = ?";
+            String getPatient = "SELECT Salt, Hash, HashParams FROM Patients WHERE username = ?";
             try {
                 PreparedStatement statement = con.prepareStatement(getPatient);
                 statement.setString(1, this.username);
                 ResultSet resultSet = statement.executeQuery();
                 while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
+                    this.salt = resultSet.getBytes("Salt");
+                    this.hash = resultSet.getBytes("Hash");
+                    this.hashParams = resultSet.getString("HashParams");
+                    return true;
                 }
-                return null;
+                return false;
             } catch (SQLException e) {
                 throw new SQLException();
             } finally {
                 cm.closeConnection();
             }
         }
-    }
-}
 
+        private void updateHash(byte[] salt, byte[] hash, String hashParams) throws SQLException {
+            ConnectionManager cm = new ConnectionManager();
+            Connection con = cm.createConnection();
 
+            String updatePatient = "UPDATE Patients SET Salt = ?, Hash = ?, HashParams = ? WHERE Username = ?";
+            try {
+                PreparedStatement statement = con.prepareStatement(updatePatient);
+                statement.setBytes(1, salt);
+                statement.setBytes(2, hash);
+                statement.setString(3, hashParams);
+                statement.setString(4, this.username);
+                statement.executeUpdate();
+                ConnectionManager.recordWrite();
+            } catch (SQLException e) {
+                throw new SQLException();
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+}
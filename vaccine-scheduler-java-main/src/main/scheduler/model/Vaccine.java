@@ -1,5 +1,7 @@
 package scheduler.model;
 
+import scheduler.changes.Change;
+import scheduler.changes.ChangeLog;
 import scheduler.db.ConnectionManager;
 
 import java.sql.Connection;
@@ -8,20 +10,28 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public class Vaccine {
+    // stock is per location, the same vaccine has one row at every clinic that keeps it
+    private final String location;
     private final String vaccineName;
     private int availableDoses;
 
     private Vaccine(VaccineBuilder builder) {
+        this.location = builder.location;
         this.vaccineName = builder.vaccineName;
         this.availableDoses = builder.availableDoses;
     }
 
     private Vaccine(VaccineGetter getter) {
+        this.location = getter.location;
         this.vaccineName = getter.vaccineName;
         this.availableDoses = getter.availableDoses;
     }
 
     // Getters
+    public String getLocation() {
+        return location;
+    }
+
     public String getVaccineName() {
         return vaccineName;
     }
@@ -34,13 +44,19 @@ public class Vaccine {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
+        String addDoses = "INSERT INTO vaccines (Location, Name, Doses) VALUES (?, ?, ?)";
         try {
             PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
+            statement.setString(1, this.location);
+            statement.setString(2, this.vaccineName);
+            statement.setInt(3, this.availableDoses);
+            con.setAutoCommit(false);
             statement.executeUpdate();
+            ChangeLog.record(con, Change.doses(this.location, this.vaccineName, this.availableDoses));
+            con.commit();
+            ConnectionManager.recordWrite();
         } catch (SQLException e) {
+            con.rollback();
             throw new SQLException();
         } finally {
             cm.closeConnection();
@@ -57,13 +73,20 @@ public class Vaccine {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+        // relative to the stored value, another instance may have changed it since this object was read
+        String removeAvailability  = "UPDATE vaccines SET Doses = Doses + ? WHERE Location = ? AND name = ?;";
         try {
             PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
+            statement.setInt(1, num);
+            statement.setString(2, this.location);
+            statement.setString(3, this.vaccineName);
+            con.setAutoCommit(false);
             statement.executeUpdate();
+            ChangeLog.record(con, Change.doses(this.location, this.vaccineName, num));
+            con.commit();
+            ConnectionManager.recordWrite();
         } catch (SQLException e) {
+            con.rollback();
             throw new SQLException();
         } finally {
             cm.closeConnection();
@@ -79,13 +102,20 @@ public class Vaccine {
         ConnectionManager cm = new ConnectionManager();
         Connection con = cm.createConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+        // relative to the stored value, another instance may have changed it since this object was read
+        String removeAvailability  = "UPDATE vaccines SET Doses = Doses - ? WHERE Location = ? AND name = ?;";
         try {
             PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
+            statement.setInt(1, num);
+            statement.setString(2, this.location);
+            statement.setString(3, this.vaccineName);
+            con.setAutoCommit(false);
             statement.executeUpdate();
+            ChangeLog.record(con, Change.doses(this.location, this.vaccineName, -num));
+            con.commit();
+            ConnectionManager.recordWrite();
         } catch (SQLException e) {
+            con.rollback();
             throw new SQLException();
         } finally {
             cm.closeConnection();
@@ -95,16 +125,19 @@ public class Vaccine {
     @Override
     public String toString() {
         return "Vaccine{" +
-                "vaccineName='" + vaccineName + '\'' +
+                "location='" + location + '\'' +
+                ", vaccineName='" + vaccineName + '\'' +
                 ", availableDoses=" + availableDoses +
                 '}';
     }
 
     public static class VaccineBuilder {
+        private final String location;
         private final String vaccineName;
         private int availableDoses;
 
-        public VaccineBuilder(String vaccineName, int availableDoses) {
+        public VaccineBuilder(String location, String vaccineName, int availableDoses) {
+            this.location = location;
             this.vaccineName = vaccineName;
             this.availableDoses = availableDoses;
         }
@@ -115,10 +148,12 @@ public class Vaccine {
     }
 
     public static class VaccineGetter {
+        private final String location;
         private final String vaccineName;
         private int availableDoses;
 
-        public VaccineGetter(String vaccineName) {
+        public VaccineGetter(String location, String vaccineName) {
+            this.location = location;
             this.vaccineName = vaccineName;
         }
 
@@ -126,10 +161,11 @@ public class Vaccine {
             ConnectionManager cm = new ConnectionManager();
             Connection con = cm.createConnection();
 
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
+            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Location = ? AND Name = ?";
             try {
                 PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
+                statement.setString(1, this.location);
+                statement.setString(2, this.vaccineName);
                 ResultSet resultSet = statement.executeQuery();
                 while (resultSet.next()) {
                     this.availableDoses = resultSet.getInt("Doses");
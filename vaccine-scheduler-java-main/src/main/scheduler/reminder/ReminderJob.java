@@ -0,0 +1,254 @@
+package scheduler.reminder;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardedConnections;
+import scheduler.log.Log;
+import scheduler.model.Appointment;
+import scheduler.util.Metrics;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a reminder to the ReminderOutbox table for everyone with an appointment on a given day: one per
+ * patient listing all of their appointments, and one per caregiver, who never has more than one a day.
+ *
+ * The day's appointments are read with a single forward-only cursor ordered by patient, so a patient's
+ * appointments arrive together and only the current batch is held in memory. Reminders are inserted in
+ * batches of ReminderBatchSize, each committed together with the last patient it covers in
+ * ReminderCheckpoint. A rerun, after a crash or on another instance, carries on after that patient instead
+ * of scanning the day again, and a finished day is not read at all. A batch only commits if the checkpoint
+ * is still where the batch started, so two runs of the same day never both write it.
+ */
+public class ReminderJob {
+
+    private static final String QUERY = "SELECT AppointmentID, PatientUsername, CaregiverUsername, VaccineName, " +
+            "Location FROM Appointment WHERE AppointmentDate = ? AND PatientUsername > ? " +
+            "ORDER BY PatientUsername, AppointmentID";
+
+    // one row of ReminderOutbox
+    static class Reminder {
+        private final String recipient;
+        private final String role;
+        private final String message;
+
+        Reminder(String recipient, String role, String message) {
+            this.recipient = recipient;
+            this.role = role;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Write the reminders for the appointments on day that are not written yet.
+     * @return the number of reminders this run wrote, or -1 if the day was already finished
+     */
+    public static long run(Date day, int batchSize, int fetchSize) throws SQLException {
+        long start = System.nanoTime();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        // the cursor stays open while the batches commit, so it gets a connection of its own; not the
+        // replica, a booking it has not seen yet would never get its reminder
+        ConnectionManager readCm = new ConnectionManager();
+        Connection readCon = readCm.createConnection();
+        ShardedConnections shards = readCon == null ? null : new ShardedConnections(readCon);
+        try {
+            if (con == null || shards == null) {
+                throw new SQLException();
+            }
+            String checkpoint = loadCheckpoint(con, day);
+            if (checkpoint == null) {
+                return -1;
+            }
+
+            int shard = ConnectionManager.shardOf(day);
+            PreparedStatement statement = shards.forDate(day).prepareStatement(QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            statement.setDate(1, day);
+            statement.setString(2, checkpoint);
+            ResultSet resultSet = statement.executeQuery();
+
+            con.setAutoCommit(false);
+            List<Reminder> batch = new ArrayList<>();
+            long written = 0;
+            String patient = null;
+            StringBuilder patientMessage = new StringBuilder();
+            while (resultSet.next()) {
+                int appointmentId = Appointment.toGlobalId(resultSet.getInt(1), shard);
+                String rowPatient = resultSet.getString(2);
+                String caregiver = resultSet.getString(3);
+                String vaccine = resultSet.getString(4);
+                String location = resultSet.getString(5);
+                Metrics.increment("reminders.appointments");
+
+                if (patient != null && !patient.equalsIgnoreCase(rowPatient)) {
+                    // the previous patient is complete, batches only end between patients
+                    batch.add(new Reminder(patient, "patient", patientMessage.toString()));
+                    if (batch.size() >= batchSize) {
+                        if (!flush(con, day, batch, checkpoint, patient, false)) {
+                            return written;
+                        }
+                        written += batch.size();
+                        checkpoint = patient;
+                        batch.clear();
+                    }
+                    patientMessage.setLength(0);
+                }
+                if (patientMessage.length() == 0) {
+                    patientMessage.append("Reminder for ").append(day).append(":");
+                } else {
+                    patientMessage.append(";");
+                }
+                appendAppointment(patientMessage, appointmentId, caregiver, vaccine, location);
+                patient = rowPatient;
+
+                StringBuilder caregiverMessage = new StringBuilder("Reminder for ").append(day).append(":");
+                appendAppointment(caregiverMessage, appointmentId, rowPatient, vaccine, location);
+                batch.add(new Reminder(caregiver, "caregiver", caregiverMessage.toString()));
+            }
+            if (patient != null) {
+                batch.add(new Reminder(patient, "patient", patientMessage.toString()));
+            }
+            if (!flush(con, day, batch, checkpoint, patient != null ? patient : checkpoint, true)) {
+                return written;
+            }
+            written += batch.size();
+            Metrics.add("reminders.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return written;
+        } catch (SQLException e) {
+            if (con != null && !con.getAutoCommit()) {
+                con.rollback();
+            }
+            throw e;
+        } finally {
+            if (shards != null) {
+                shards.close();
+            }
+            readCm.closeConnection();
+            cm.closeConnection();
+        }
+    }
+
+    private static void appendAppointment(StringBuilder message, int appointmentId, String with, String vaccine,
+                                          String location) {
+        message.append(" appointment ").append(appointmentId).append(" with ").append(with)
+                .append(" for ").append(vaccine).append(" vaccine at ").append(location);
+    }
+
+    /**
+     * The last patient already reminded for day, "" if none yet, creating the checkpoint if needed.
+     * @return null if the day is finished
+     */
+    private static String loadCheckpoint(Connection con, Date day) throws SQLException {
+        String getCheckpoint = "SELECT LastPatient, Finished FROM ReminderCheckpoint WHERE ReminderDate = ?";
+        PreparedStatement statement = con.prepareStatement(getCheckpoint);
+        statement.setDate(1, day);
+        ResultSet resultSet = statement.executeQuery();
+        if (resultSet.next()) {
+            return resultSet.getTimestamp(2) != null ? null : resultSet.getString(1);
+        }
+        String addCheckpoint = "INSERT INTO ReminderCheckpoint (ReminderDate, LastPatient, Finished) VALUES (?, '', NULL)";
+        statement = con.prepareStatement(addCheckpoint);
+        statement.setDate(1, day);
+        try {
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            // another run created it first, start from wherever it is now
+            if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                throw e;
+            }
+            return loadCheckpoint(con, day);
+        }
+        ConnectionManager.recordWrite();
+        return "";
+    }
+
+    /**
+     * Insert the batch and move the checkpoint from from to to in one transaction.
+     * @return false if another run moved the checkpoint first, nothing was written
+     */
+    static boolean flush(Connection con, Date day, List<Reminder> batch, String from, String to,
+                                 boolean finished) throws SQLException {
+        // moving the checkpoint first also locks it until the batch is in
+        String moveCheckpoint = "UPDATE ReminderCheckpoint SET LastPatient = ?, Finished = ? " +
+                "WHERE ReminderDate = ? AND LastPatient = ? AND Finished IS NULL";
+        PreparedStatement statement = con.prepareStatement(moveCheckpoint);
+        statement.setString(1, to);
+        if (finished) {
+            statement.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+        } else {
+            statement.setNull(2, Types.TIMESTAMP);
+        }
+        statement.setDate(3, day);
+        statement.setString(4, from);
+        if (statement.executeUpdate() == 0) {
+            con.rollback();
+            Metrics.increment("reminders.conflicts");
+            return false;
+        }
+
+        if (!batch.isEmpty()) {
+            String addReminder = "INSERT INTO ReminderOutbox (ReminderDate, Recipient, Role, Message, CreatedAt) " +
+                    "VALUES (?, ?, ?, ?, ?)";
+            statement = con.prepareStatement(addReminder);
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            for (Reminder reminder : batch) {
+                statement.setDate(1, day);
+                statement.setString(2, reminder.recipient);
+                statement.setString(3, reminder.role);
+                statement.setString(4, reminder.message);
+                statement.setTimestamp(5, now);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        con.commit();
+        ConnectionManager.recordWrite();
+        Metrics.increment("reminders.batches");
+        Metrics.add("reminders.written", batch.size());
+        return true;
+    }
+
+    // run every day at the given local time for the appointments of the next day, on a background thread
+    public static ScheduledExecutorService schedule(LocalTime at, int batchSize, int fetchSize) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reminders");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduleNext(executor, at, batchSize, fetchSize);
+        return executor;
+    }
+
+    // worked out again every day, so the run stays at the same wall-clock time across daylight saving changes
+    private static void scheduleNext(ScheduledExecutorService executor, LocalTime at, int batchSize, int fetchSize) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = now.toLocalDate().atTime(at);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        executor.schedule(() -> {
+            try {
+                run(Date.valueOf(LocalDate.now().plusDays(1)), batchSize, fetchSize);
+            } catch (SQLException | RuntimeException e) {
+                Log.error("Error occurred when sending reminders", e);
+            }
+            scheduleNext(executor, at, batchSize, fetchSize);
+        }, Duration.between(now, next).toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,163 @@
+package scheduler.report;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardedConnections;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Operations report over a date range: caregiver utilization and projected no-shows per day, and how many
+ * days each vaccine's stock lasts at the booking rate seen in the range.
+ *
+ * Availabilities, Appointment and Vaccines are each read once into primitive arrays, then the per-day
+ * counts are built with parallel streams: every fork-join worker fills its own day histogram and the
+ * histograms are added together, so there is no locking and no query per day. With shards each shard is
+ * read in turn into the same arrays.
+ * There is no attendance data, so no-shows are projected from a configured rate.
+ */
+public class UtilizationReport {
+
+    private final LocalDate from;
+    private final int days;
+    private final double noShowRate;
+    private final List<String> vaccines = new ArrayList<>();
+    private final List<Integer> doses = new ArrayList<>();
+    // per day in the range
+    private int[] available;
+    private int[] booked;
+    // per vaccine, bookings in the range
+    private int[] bookedByVaccine;
+
+    private UtilizationReport(LocalDate from, LocalDate to, double noShowRate) {
+        this.from = from;
+        this.days = (int) (to.toEpochDay() - from.toEpochDay()) + 1;
+        this.noShowRate = noShowRate;
+    }
+
+    public static UtilizationReport load(ShardedConnections shards, Date from, Date to, double noShowRate)
+            throws SQLException {
+        Connection con = shards.primary();
+        UtilizationReport report = new UtilizationReport(from.toLocalDate(), to.toLocalDate(), noShowRate);
+        int fromDay = (int) from.toLocalDate().toEpochDay();
+
+        Map<String, Integer> vaccineIndex = new HashMap<>();
+        // stock summed over every location
+        ResultSet resultSet = con.createStatement().executeQuery(
+                "SELECT Name, SUM(Doses) FROM Vaccines GROUP BY Name");
+        while (resultSet.next()) {
+            vaccineIndex.put(resultSet.getString(1), report.vaccines.size());
+            report.vaccines.add(resultSet.getString(1));
+            report.doses.add(resultSet.getInt(2));
+        }
+
+        // day offsets of every availability in the range
+        IntArray availabilityDays = new IntArray();
+        // day offsets and vaccine indexes of every appointment in the range
+        IntArray appointmentDays = new IntArray();
+        IntArray appointmentVaccines = new IntArray();
+        for (int shard = 0; shard < ConnectionManager.shardCount(); shard++) {
+            PreparedStatement statement = shards.forShard(shard).prepareStatement(
+                    "SELECT Time FROM Availabilities WHERE Time >= ? AND Time <= ?");
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            statement.setFetchSize(10000);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                availabilityDays.add((int) resultSet.getDate(1).toLocalDate().toEpochDay() - fromDay);
+            }
+
+            statement = shards.forShard(shard).prepareStatement(
+                    "SELECT AppointmentDate, VaccineName FROM Appointment WHERE AppointmentDate >= ? AND AppointmentDate <= ?");
+            statement.setDate(1, from);
+            statement.setDate(2, to);
+            statement.setFetchSize(10000);
+            resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                appointmentDays.add((int) resultSet.getDate(1).toLocalDate().toEpochDay() - fromDay);
+                String vaccine = resultSet.getString(2);
+                Integer index = vaccineIndex.get(vaccine);
+                if (index == null) {
+                    // booked against a vaccine that no longer has a row, it has no stock left
+                    index = report.vaccines.size();
+                    vaccineIndex.put(vaccine, index);
+                    report.vaccines.add(vaccine);
+                    report.doses.add(0);
+                }
+                appointmentVaccines.add(index);
+            }
+        }
+
+        report.available = histogram(availabilityDays.toArray(), report.days);
+        report.booked = histogram(appointmentDays.toArray(), report.days);
+        report.bookedByVaccine = histogram(appointmentVaccines.toArray(), report.vaccines.size());
+        return report;
+    }
+
+    // count how often each value in 0..size-1 occurs, with one partial histogram per fork-join task
+    static int[] histogram(int[] values, int size) {
+        return Arrays.stream(values).parallel().collect(() -> new int[size], (counts, value) -> counts[value]++,
+                (left, right) -> {
+                    for (int i = 0; i < size; i++) {
+                        left[i] += right[i];
+                    }
+                });
+    }
+
+    public void print() {
+        System.out.println("Date, Caregivers available, Appointments, Utilization, Projected no-shows");
+        // format the days in parallel too, then print them in order
+        String[] lines = IntStream.range(0, days).parallel()
+                .mapToObj(day -> available[day] == 0 && booked[day] == 0 ? null :
+                        String.format("%s, %d, %d, %s, %.1f", from.plusDays(day), available[day], booked[day],
+                                available[day] == 0 ? "n/a" : String.format("%.0f%%", 100.0 * booked[day] / available[day]),
+                                booked[day] * noShowRate))
+                .toArray(String[]::new);
+        for (String line : lines) {
+            if (line != null) {
+                System.out.println(line);
+            }
+        }
+        long totalAvailable = IntStream.of(available).parallel().asLongStream().sum();
+        long totalBooked = IntStream.of(booked).parallel().asLongStream().sum();
+        System.out.printf("Total: %d caregiver days, %d appointments, %s utilization, %.1f projected no-shows%n",
+                totalAvailable, totalBooked,
+                totalAvailable == 0 ? "n/a" : String.format("%.0f%%", 100.0 * totalBooked / totalAvailable),
+                totalBooked * noShowRate);
+
+        for (int v = 0; v < vaccines.size(); v++) {
+            double perDay = (double) bookedByVaccine[v] / days;
+            System.out.println("Vaccine: " + vaccines.get(v) +
+                    ", Doses left: " + doses.get(v) +
+                    ", Booked per day: " + String.format("%.2f", perDay) +
+                    ", Days of stock: " + (perDay == 0 ? "n/a" : String.format("%.1f", doses.get(v) / perDay)));
+        }
+    }
+
+    // growable int array, so a year of rows is not boxed
+    private static class IntArray {
+        private int[] values = new int[1024];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
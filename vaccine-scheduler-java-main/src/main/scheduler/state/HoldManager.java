@@ -0,0 +1,174 @@
+package scheduler.state;
+
+import scheduler.util.Metrics;
+import scheduler.util.TimingWheel;
+
+import java.sql.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tentative bookings: a hold keeps a caregiver's slot on a date and one dose of a vaccine at a location
+ * away from everyone else until the patient confirms it, releases it, or the TTL runs out. Holds live only
+ * in memory; reserve subtracts heldDoses() from the stock it sees and skips slots for which isHeld() is true.
+ * Expiry goes through a TimingWheel, so each hold costs O(1) to create, confirm or expire.
+ */
+public class HoldManager {
+
+    private final long ttlMillis;
+    private final TimingWheel wheel;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    // all guarded by this
+    private final Map<Integer, Hold> holds = new HashMap<>();
+    private final Set<String> heldSlots = new HashSet<>();
+    // location|vaccine -> doses held
+    private final Map<String, Integer> heldDoses = new HashMap<>();
+
+    public static class Hold {
+        private final int holdId;
+        private final String patient;
+        private final String caregiver;
+        private final Date date;
+        private final String vaccine;
+        private final String location;
+        private TimingWheel.Timeout timeout;
+
+        private Hold(int holdId, String patient, String caregiver, Date date, String vaccine, String location) {
+            this.holdId = holdId;
+            this.patient = patient;
+            this.caregiver = caregiver;
+            this.date = date;
+            this.vaccine = vaccine;
+            this.location = location;
+        }
+
+        public int getHoldId() {
+            return holdId;
+        }
+
+        public String getPatient() {
+            return patient;
+        }
+
+        public String getCaregiver() {
+            return caregiver;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public String getVaccine() {
+            return vaccine;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+    }
+
+    public HoldManager(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        // one second ticks, 512 buckets covers about eight and a half minutes per revolution
+        this.wheel = new TimingWheel(1000, 512, "hold-expiry");
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Hold the caregiver's slot on d and one dose of vaccine at location for patient. stock is the number of
+     * doses there not counting holds; it is compared with the doses already held in the same step as the hold
+     * is made, so two holds can never both take the last dose.
+     * @return the hold, or null if someone else holds that slot already or every dose is held
+     */
+    public synchronized Hold hold(String patient, String caregiver, Date d, String vaccine, String location,
+                                  int stock) {
+        if (stock - heldDoses(location, vaccine) < 1) {
+            return null;
+        }
+        if (!heldSlots.add(slotKey(caregiver, d))) {
+            return null;
+        }
+        Hold hold = new Hold(nextId.getAndIncrement(), patient, caregiver, d, vaccine, location);
+        holds.put(hold.holdId, hold);
+        heldDoses.merge(doseKey(location, vaccine), 1, Integer::sum);
+        hold.timeout = wheel.schedule(() -> expire(hold), ttlMillis);
+        Metrics.increment("holds.created");
+        return hold;
+    }
+
+    /**
+     * Claim a hold so it can be confirmed. The hold stops expiring but its slot and dose stay held until
+     * finish() is called, so nobody can take them while the appointment is being written.
+     * @return the hold, or null if there is no such hold for patient (it expired or was released)
+     */
+    public synchronized Hold claim(int holdId, String patient) {
+        Hold hold = holds.get(holdId);
+        if (hold == null || !hold.patient.equalsIgnoreCase(patient)) {
+            return null;
+        }
+        holds.remove(holdId);
+        hold.timeout.cancel();
+        return hold;
+    }
+
+    // give back the slot and dose of a claimed hold, once its appointment is saved or the save failed
+    public synchronized void finish(Hold hold) {
+        free(hold);
+    }
+
+    /**
+     * Drop a hold before it expires.
+     * @return false if there is no such hold for patient
+     */
+    public synchronized boolean release(int holdId, String patient) {
+        Hold hold = claim(holdId, patient);
+        if (hold == null) {
+            return false;
+        }
+        free(hold);
+        Metrics.increment("holds.released");
+        return true;
+    }
+
+    public synchronized boolean isHeld(String caregiver, Date d) {
+        return heldSlots.contains(slotKey(caregiver, d));
+    }
+
+    public synchronized int heldDoses(String location, String vaccine) {
+        return heldDoses.getOrDefault(doseKey(location, vaccine), 0);
+    }
+
+    public synchronized int size() {
+        return holds.size();
+    }
+
+    // runs on the wheel thread
+    private synchronized void expire(Hold hold) {
+        if (holds.remove(hold.holdId) != null) {
+            free(hold);
+            Metrics.increment("holds.expired");
+        }
+    }
+
+    private void free(Hold hold) {
+        heldSlots.remove(slotKey(hold.caregiver, hold.date));
+        heldDoses.computeIfPresent(doseKey(hold.location, hold.vaccine), (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    // names compare case-insensitively in the database, so they do here too
+    private static String slotKey(String caregiver, Date d) {
+        return caregiver.toLowerCase(Locale.ROOT) + "|" + d;
+    }
+
+    private static String doseKey(String location, String vaccine) {
+        return location.toLowerCase(Locale.ROOT) + "|" + vaccine.toLowerCase(Locale.ROOT);
+    }
+}
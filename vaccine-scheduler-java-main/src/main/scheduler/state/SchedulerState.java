@@ -0,0 +1,190 @@
+package scheduler.state;
+
+import scheduler.db.ConnectionManager;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory copy of the usernames, which is what the username Bloom filters are built from. It is filled
+ * once at startup, either from a StateSnapshot or by scanning the tables, and then kept current by calling
+ * the on*() methods after each user has been committed. Availability, stock and appointments are not kept
+ * here; they change constantly and are read from the database, through SearchCache for search.
+ */
+public class SchedulerState {
+
+    // number of values fingerprint() returns
+    static final int FINGERPRINT_LENGTH = 4;
+
+    // sum over the names of the first 4 bytes of HASHBYTES('SHA2_256') of the name as nvarchar, i.e. UTF-16LE,
+    // read as a signed int; a sum doesn't depend on the order of the rows, so the database needs no sort
+    private static final String NAME_HASH_SUM = "ISNULL(SUM(CAST(CAST(CAST(HASHBYTES('SHA2_256', " +
+            "CAST(Username AS nvarchar(255))) AS binary(4)) AS int) AS bigint)), 0)";
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Set<String> patients = new HashSet<>();
+    private final Set<String> caregivers = new HashSet<>();
+
+    /**
+     * Build the state by reading the user tables once.
+     */
+    public static SchedulerState loadFromDatabase() throws SQLException {
+        SchedulerState state = new SchedulerState();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLException();
+        }
+        try {
+            Statement statement = con.createStatement();
+            ResultSet resultSet = statement.executeQuery("SELECT Username FROM Patients");
+            while (resultSet.next()) {
+                state.patients.add(resultSet.getString(1));
+            }
+            resultSet = statement.executeQuery("SELECT Username FROM Caregivers");
+            while (resultSet.next()) {
+                state.caregivers.add(resultSet.getString(1));
+            }
+            return state;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    /**
+     * Cheap summary of the tables, computed by the database in one query: the number of names and a hash of
+     * them for each table, so deleting one user and creating another doesn't look unchanged. A snapshot
+     * whose fingerprint() matches it is assumed to hold the same data.
+     */
+    public static long[] databaseFingerprint() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLException();
+        }
+        try {
+            String query = "SELECT (SELECT COUNT(*) FROM Patients), (SELECT " + NAME_HASH_SUM + " FROM Patients), " +
+                    "(SELECT COUNT(*) FROM Caregivers), (SELECT " + NAME_HASH_SUM + " FROM Caregivers)";
+            ResultSet resultSet = con.createStatement().executeQuery(query);
+            resultSet.next();
+            long[] fingerprint = new long[FINGERPRINT_LENGTH];
+            for (int i = 0; i < FINGERPRINT_LENGTH; i++) {
+                fingerprint[i] = resultSet.getLong(i + 1);
+            }
+            return fingerprint;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // the same summary as databaseFingerprint(), computed from memory
+    public long[] fingerprint() {
+        lock.readLock().lock();
+        try {
+            return new long[]{patients.size(), nameHashSum(patients), caregivers.size(), nameHashSum(caregivers)};
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the same as NAME_HASH_SUM in the database
+    static long nameHashSum(Set<String> names) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long sum = 0;
+        for (String name : names) {
+            if (name != null) {
+                sum += ByteBuffer.wrap(digest.digest(name.getBytes(StandardCharsets.UTF_16LE))).getInt();
+            }
+        }
+        return sum;
+    }
+
+    // --- updates, call after the change is committed ---
+
+    public void onPatientCreated(String username) {
+        lock.writeLock().lock();
+        try {
+            patients.add(username);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void onCaregiverCreated(String username) {
+        lock.writeLock().lock();
+        try {
+            caregivers.add(username);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // take over everything in fresh, e.g. a reload after changes may have been missed
+    public void replaceWith(SchedulerState fresh) {
+        lock.writeLock().lock();
+        try {
+            patients.clear();
+            patients.addAll(fresh.patients);
+            caregivers.clear();
+            caregivers.addAll(fresh.caregivers);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --- reads ---
+
+    public List<String> getPatients() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(patients);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> getCaregivers() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(caregivers);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- used by StateSnapshot ---
+
+    void readLock() {
+        lock.readLock().lock();
+    }
+
+    void readUnlock() {
+        lock.readLock().unlock();
+    }
+
+    Set<String> patients() {
+        return patients;
+    }
+
+    Set<String> caregivers() {
+        return caregivers;
+    }
+}
@@ -0,0 +1,123 @@
+package scheduler.state;
+
+import scheduler.util.Metrics;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of search_caregiver_schedule kept in memory. A search is the caregivers available at a location
+ * on a date crossed with the stock of every vaccine there, so the two halves are cached separately:
+ *  - the caregivers per location and date, in a bounded LRU, dropped for exactly the location and date
+ *    whose availability or bookings change (upload_availability, reserve, cancel). A date holds the
+ *    CaregiverIDs only, and each name is kept once however many cached dates list it
+ *  - the vaccine stock per location, one small entry patched in place when doses are taken or added, and
+ *    dropped when a vaccine appears there or its stock crosses zero
+ *
+ * Loads race with writes, so a result read from the database is only stored if nothing was invalidated
+ * since the read started: take generation() before the query and pass it to the put.
+ */
+public class SearchCache {
+
+    private final int maxDates;
+    // all guarded by this
+    private final LinkedHashMap<String, int[]> caregiversByDay;
+    // CaregiverID -> username, for every caregiver in caregiversByDay
+    private final Map<Integer, String> caregiverNames = new HashMap<>();
+    private final Map<String, Map<String, Integer>> stockByLocation = new HashMap<>();
+    private long generation = 0;
+
+    public SearchCache(int maxDates) {
+        this.maxDates = maxDates;
+        this.caregiversByDay = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+                return size() > SearchCache.this.maxDates;
+            }
+        };
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    // the cached caregivers at location for d, or null
+    public synchronized List<String> getCaregivers(String location, Date d) {
+        int[] ids = caregiversByDay.get(dayKey(location, d));
+        Metrics.increment(ids != null ? "search_cache.hit" : "search_cache.miss");
+        if (ids == null) {
+            return null;
+        }
+        List<String> caregivers = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            caregivers.add(caregiverNames.get(id));
+        }
+        return caregivers;
+    }
+
+    // caregivers is CaregiverID -> username, in the order to list them
+    public synchronized void putCaregivers(String location, Date d, Map<Integer, String> caregivers,
+                                           long loadedAt) {
+        if (loadedAt == generation) {
+            int[] ids = new int[caregivers.size()];
+            int i = 0;
+            for (Map.Entry<Integer, String> caregiver : caregivers.entrySet()) {
+                ids[i++] = caregiver.getKey();
+                caregiverNames.putIfAbsent(caregiver.getKey(), caregiver.getValue());
+            }
+            caregiversByDay.put(dayKey(location, d), ids);
+        }
+    }
+
+    // a copy of the cached stock at location in load order, or null
+    public synchronized Map<String, Integer> getStock(String location) {
+        Map<String, Integer> stock = stockByLocation.get(location);
+        return stock == null ? null : new LinkedHashMap<>(stock);
+    }
+
+    public synchronized void putStock(String location, Map<String, Integer> loaded, long loadedAt) {
+        if (loadedAt == generation) {
+            stockByLocation.put(location, new LinkedHashMap<>(loaded));
+        }
+    }
+
+    // availability or bookings changed at location on d
+    public synchronized void onDateChanged(String location, Date d) {
+        generation++;
+        if (caregiversByDay.remove(dayKey(location, d)) != null) {
+            Metrics.increment("search_cache.invalidated");
+        }
+    }
+
+    // doses of vaccine at location went up or down by delta
+    public synchronized void onStockChanged(String location, String vaccine, int delta) {
+        generation++;
+        Map<String, Integer> stock = stockByLocation.get(location);
+        if (stock == null) {
+            return;
+        }
+        Integer doses = stock.get(vaccine);
+        if (doses == null || (doses > 0) != (doses + delta > 0)) {
+            stockByLocation.remove(location);
+            Metrics.increment("search_cache.invalidated");
+            return;
+        }
+        stock.put(vaccine, doses + delta);
+    }
+
+    // drop everything, e.g. when changes may have been missed
+    public synchronized void clear() {
+        generation++;
+        caregiversByDay.clear();
+        caregiverNames.clear();
+        stockByLocation.clear();
+    }
+
+    private static String dayKey(String location, Date d) {
+        return location + "|" + d.toLocalDate().toEpochDay();
+    }
+}
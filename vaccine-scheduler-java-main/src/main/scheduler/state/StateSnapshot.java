@@ -0,0 +1,195 @@
+package scheduler.state;
+
+import scheduler.log.Log;
+import scheduler.util.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a SchedulerState, so a restart can skip scanning every table.
+ *
+ * Layout (big-endian):
+ *   magic "VSNP" (int), version (int), written at (long millis), fingerprint (4 longs)
+ *   patients:      count (int), names
+ *   caregivers:    count (int), names
+ *   crc32 of everything above (long)
+ * Names are a 2 byte length followed by UTF-8, a length of 0xFFFF marks a null name.
+ */
+public class StateSnapshot {
+
+    private static final int MAGIC = 0x56534E50; // "VSNP"
+    private static final int VERSION = 4;
+    private static final int NULL_NAME = 0xFFFF;
+
+    /**
+     * Load the snapshot at path if it is intact and still matches the database, otherwise scan the tables.
+     * A fresh snapshot is written after a scan so the next start is fast.
+     */
+    public static SchedulerState loadOrRebuild(Path path) throws SQLException {
+        if (path != null && Files.exists(path)) {
+            long start = System.nanoTime();
+            try {
+                SchedulerState state = read(path);
+                if (state != null && Arrays.equals(state.fingerprint(), SchedulerState.databaseFingerprint())) {
+                    Metrics.add("snapshot.load_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    return state;
+                }
+                Log.error("Snapshot is out of date, rebuilding from the database", null);
+            } catch (IOException e) {
+                Log.error("Error occurred when reading the snapshot, rebuilding from the database", e);
+            }
+        }
+        SchedulerState state = SchedulerState.loadFromDatabase();
+        Metrics.increment("snapshot.rebuilds");
+        if (path != null) {
+            writeQuietly(state, path);
+        }
+        return state;
+    }
+
+    // write a snapshot every intervalSeconds on a background thread
+    public static ScheduledExecutorService schedule(SchedulerState state, Path path, long intervalSeconds) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "state-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> writeQuietly(state, path), intervalSeconds, intervalSeconds,
+                TimeUnit.SECONDS);
+        return executor;
+    }
+
+    public static void writeQuietly(SchedulerState state, Path path) {
+        try {
+            write(state, path);
+        } catch (IOException e) {
+            Log.error("Error occurred when writing the snapshot", e);
+        }
+    }
+
+    /**
+     * Serialize the state under its read lock, then write it to a temporary file and move it into place,
+     * so a crash while writing never leaves a half-written snapshot at path.
+     */
+    public static void write(SchedulerState state, Path path) throws IOException {
+        long start = System.nanoTime();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        state.readLock();
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            for (long value : state.fingerprint()) {
+                out.writeLong(value);
+            }
+            writeNames(out, state.patients());
+            writeNames(out, state.caregivers());
+        } finally {
+            state.readUnlock();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Metrics.increment("snapshot.writes");
+        Metrics.add("snapshot.write_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Map the snapshot file and decode it.
+     * @return the state, or null if the file is not a snapshot of this version or fails its checksum
+     */
+    public static SchedulerState read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 8 + 8 + SchedulerState.FINGERPRINT_LENGTH * 8 + 8 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            CRC32 crc = new CRC32();
+            ByteBuffer body = buffer.duplicate();
+            body.limit((int) size - 8);
+            crc.update(body);
+            if (buffer.getLong((int) size - 8) != crc.getValue()) {
+                return null;
+            }
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            buffer.getLong(); // written at
+            for (int i = 0; i < SchedulerState.FINGERPRINT_LENGTH; i++) {
+                buffer.getLong(); // fingerprint, recomputed from the data below
+            }
+
+            SchedulerState state = new SchedulerState();
+            readNames(buffer, state.patients());
+            readNames(buffer, state.caregivers());
+            return state;
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, Set<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            writeName(out, name);
+        }
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        if (name == null) {
+            out.writeShort(NULL_NAME);
+            return;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void readNames(ByteBuffer buffer, Set<String> names) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            names.add(readName(buffer));
+        }
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_NAME) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
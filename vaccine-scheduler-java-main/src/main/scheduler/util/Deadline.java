@@ -0,0 +1,56 @@
+package scheduler.util;
+
+/**
+ * How long the command running on this thread has left. CommandRegistry starts one for every command and
+ * the database layer turns what is left of it into the wait for a connection and the query timeout of every
+ * statement, so a slow database fails the command instead of stalling it.
+ * Threads with no deadline (the journal replicator, the change feed) wait as long as it takes.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> current = new ThreadLocal<>();
+
+    private final long expiresAtNanos;
+
+    private Deadline(long millis) {
+        this.expiresAtNanos = System.nanoTime() + millis * 1_000_000;
+    }
+
+    // start a deadline of millis for this thread, none if millis is not positive
+    public static Deadline start(long millis) {
+        Deadline deadline = millis > 0 ? new Deadline(millis) : null;
+        attach(deadline);
+        return deadline;
+    }
+
+    // run this thread under another thread's deadline, e.g. for work handed to a pool; null clears it
+    public static void attach(Deadline deadline) {
+        if (deadline == null) {
+            current.remove();
+        } else {
+            current.set(deadline);
+        }
+    }
+
+    public static void clear() {
+        current.remove();
+    }
+
+    // the deadline of this thread, or null
+    public static Deadline current() {
+        return current.get();
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, (expiresAtNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    public boolean expired() {
+        return expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    // JDBC query timeouts are whole seconds, rounded up so a statement is never cut off early
+    public int queryTimeoutSeconds() {
+        return (int) Math.max(1, (remainingMillis() + 999) / 1000);
+    }
+}
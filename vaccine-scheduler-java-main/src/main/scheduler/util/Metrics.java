@@ -0,0 +1,42 @@
+package scheduler.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide named counters, cheap enough to bump on every request. Printed by the stats command.
+ */
+public class Metrics {
+
+    private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long amount) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(amount);
+    }
+
+    public static long get(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    // numerator / denominator, or 0 if nothing was counted yet
+    public static double ratio(String numerator, String denominator) {
+        long total = get(denominator);
+        return total == 0 ? 0.0 : (double) get(numerator) / total;
+    }
+
+    // all counters sorted by name
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+}
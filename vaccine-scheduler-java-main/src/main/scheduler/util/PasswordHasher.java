@@ -0,0 +1,160 @@
+package scheduler.util;
+
+import scheduler.log.Log;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs password key derivation on a small dedicated pool so that a burst of logins can only use
+ * HashThreads cores, never the threads serving reservations.
+ *
+ * The pool has a bounded queue: when HashQueueSize requests are already waiting, or a request waits
+ * longer than HashTimeoutMillis, hash() throws RejectedExecutionException and the caller should ask
+ * the user to try again.
+ *
+ * Stored hashes carry their parameters as "algorithm:iterations" (the HashParams column). A null
+ * value marks the original format produced by Util.generateHash, which verify() still accepts so
+ * those users can log in and get rehashed.
+ *
+ * Call checkSettings() at startup: a bad HashAlgorithm or HashIterations is reported there instead
+ * of on the first login. A stored hash that cannot be checked fails verify() like a wrong password.
+ */
+public class PasswordHasher {
+
+    // the Hash columns are BINARY(16)
+    private static final int KEY_LENGTH = 128;
+
+    private static final String algorithm = Util.getenvOrDefault("HashAlgorithm", "PBKDF2WithHmacSHA256");
+    private static final String iterationsSetting = Util.getenvOrDefault("HashIterations", "310000");
+    private static final int iterations = parseIterations(iterationsSetting);
+    private static final long timeoutMillis = Long.parseLong(Util.getenvOrDefault("HashTimeoutMillis", "5000"));
+    private static final String currentParams = algorithm + ":" + iterations;
+
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    private static ThreadPoolExecutor createExecutor() {
+        int threads = Integer.parseInt(Util.getenvOrDefault("HashThreads",
+                String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+        int queueSize = Integer.parseInt(Util.getenvOrDefault("HashQueueSize", "64"));
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // -1 if the value is not a number, checkSettings() reports it
+    private static int parseIterations(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // throws IllegalStateException if new hashes cannot be created with the configured parameters
+    public static void checkSettings() {
+        if (iterations < 1) {
+            throw new IllegalStateException("HashIterations must be a positive number, got " + iterationsSetting);
+        }
+        // one cheap round is enough to find out whether the algorithm exists
+        derive("check", new byte[16], algorithm, 1);
+    }
+
+    // parameters new hashes are created with, store them next to the hash
+    public static String currentParams() {
+        return currentParams;
+    }
+
+    // true if a hash stored with these parameters should be replaced on the next successful login
+    public static boolean needsRehash(String params) {
+        return !currentParams.equals(params);
+    }
+
+    // hash a password with the current parameters
+    public static byte[] hash(String password, byte[] salt) {
+        return hash(password, salt, currentParams);
+    }
+
+    // check a password against a stored hash and the parameters it was created with
+    public static boolean verify(String password, byte[] salt, byte[] storedHash, String params) {
+        try {
+            if (params == null) {
+                // original format: 16-bit key that comes back from the database padded with zeros
+                byte[] calculatedHash = submit(() -> Util.generateHash(password, salt));
+                return Arrays.equals(Util.trim(storedHash), calculatedHash);
+            }
+            return MessageDigest.isEqual(storedHash, hash(password, salt, params));
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // unreadable HashParams or an algorithm this JVM does not have, the login fails
+            Metrics.increment("hash.failed");
+            Log.error("Could not verify a password hashed with " + params, e);
+            return false;
+        }
+    }
+
+    private static byte[] hash(String password, byte[] salt, String params) {
+        int separator = params.lastIndexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Bad hash parameters: " + params);
+        }
+        String hashAlgorithm = params.substring(0, separator);
+        int hashIterations = Integer.parseInt(params.substring(separator + 1));
+        return submit(() -> derive(password, salt, hashAlgorithm, hashIterations));
+    }
+
+    private static byte[] submit(Callable<byte[]> task) {
+        long submitted = System.nanoTime();
+        Future<byte[]> future;
+        try {
+            future = executor.submit(() -> {
+                Metrics.add("hash.queue_time_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted));
+                Metrics.increment("hash.count");
+                return task.call();
+            });
+        } catch (RejectedExecutionException e) {
+            Metrics.increment("hash.rejected");
+            throw e;
+        }
+
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            Metrics.increment("hash.timed_out");
+            throw new RejectedExecutionException("Password hashing timed out");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while hashing");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, String hashAlgorithm, int hashIterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, hashIterations, KEY_LENGTH);
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(hashAlgorithm);
+            return factory.generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package scheduler.util;
+
+import scheduler.log.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timing wheel: one thread ticks every tickMillis and runs the tasks in the bucket the wheel points at.
+ * A task due in more than one revolution waits in its bucket for the extra rounds. Scheduling and cancelling
+ * are O(1), and there is no per-task timer thread or priority queue, so it copes with very many short-lived
+ * timeouts. Tasks fire up to one tick late and run on the wheel thread, so they must be quick.
+ */
+public class TimingWheel {
+
+    private final long tickMillis;
+    private final long startTime = System.currentTimeMillis();
+    private final List<List<Timeout>> buckets;
+    private final int mask;
+    // timeouts scheduled since the last tick, moved into their buckets by the wheel thread
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private long tick = 0;
+    private volatile boolean running = true;
+
+    public class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private long remainingRounds;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        // the task will not run; it is dropped from its bucket the next time the wheel passes it
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * @param tickMillis resolution of the wheel
+     * @param wheelSize  number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(long tickMillis, int wheelSize, String name) {
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(Math.max(wheelSize, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long dueMillis = System.currentTimeMillis() - startTime + Math.max(delayMillis, 1);
+        // the first tick at or after the due time, so a task never fires early
+        Timeout timeout = new Timeout(task, (dueMillis + tickMillis - 1) / tickMillis);
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long nextTickAt = startTime + (tick + 1) * tickMillis;
+            long sleep = nextTickAt - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            tick++;
+            transferIncoming();
+            expire(buckets.get((int) (tick & mask)));
+        }
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // a deadline that already passed goes in the current bucket and fires on this tick
+            long deadline = Math.max(timeout.deadlineTick, tick);
+            timeout.remainingRounds = (deadline - tick) / buckets.size();
+            buckets.get((int) (deadline & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.remainingRounds <= 0) {
+                it.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    Log.error("Timer task failed", e);
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package scheduler.util;
+
+/**
+ * Token bucket rate limiter: holds up to `capacity` tokens and refills at `tokensPerSecond`.
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double tokensPerSecond, int capacity) {
+        if (tokensPerSecond <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Rate and capacity must be positive!");
+        }
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / 1_000_000_000.0;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Take one token if there is one.
+     * @return 0 if a token was taken, otherwise how many milliseconds until the next token is available
+     */
+    public synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano / 1_000_000));
+    }
+
+    // give back a token taken by tryAcquire, when what it was taken for did not happen after all
+    public synchronized void release() {
+        refill();
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    // true if the bucket is back to full, i.e. forgetting it would change nothing
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -10,7 +10,7 @@ import java.util.Arrays;
 
 public class Util {
 
-    // constants for handling password
+    // parameters of the original password hashes, new ones are created by PasswordHasher
     private static final int HASH_STRENGTH = 10;
     private static final int KEY_LENGTH = 16;
 
@@ -38,6 +38,12 @@ public class Util {
         return hash;
     }
 
+    // the value of an environment variable, or defaultValue when it is not set
+    public static String getenvOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+
     public static byte[] trim(byte[] bytes)
     {
         int i = bytes.length - 1;
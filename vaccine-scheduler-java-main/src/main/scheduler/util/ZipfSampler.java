@@ -0,0 +1,31 @@
+package scheduler.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Draws ranks 0..n-1 with probability proportional to 1 / (rank + 1)^exponent, so rank 0 is the most popular.
+ * An exponent of 0 is uniform, around 1 matches the usual "everyone wants the first dates" skew.
+ */
+public class ZipfSampler {
+
+    private final double[] cumulative;
+
+    public ZipfSampler(int n, double exponent) {
+        cumulative = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += 1.0 / Math.pow(i + 1, exponent);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= total;
+        }
+    }
+
+    public int next(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        // not found gives -(insertion point) - 1, the insertion point is the rank drawn
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,30 @@
+package scheduler;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Assertions for the tests under src/test. Each test is a plain program whose main() throws on the first
+ * failed check, so the tests run with nothing but the JDK.
+ */
+public class Check {
+
+    public static void isTrue(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+
+    public static void equal(Object expected, Object actual, String what) {
+        boolean same = expected instanceof Object[] && actual instanceof Object[]
+                ? Arrays.equals((Object[]) expected, (Object[]) actual)
+                : Objects.equals(expected, actual);
+        if (!same) {
+            throw new AssertionError(what + ": expected " + format(expected) + " but was " + format(actual));
+        }
+    }
+
+    private static String format(Object value) {
+        return value instanceof Object[] ? Arrays.toString((Object[]) value) : String.valueOf(value);
+    }
+}
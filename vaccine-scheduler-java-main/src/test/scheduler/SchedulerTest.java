@@ -0,0 +1,44 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static scheduler.Check.isTrue;
+
+/**
+ * Commands dispatched the way the CLI loop does, without a database: whatever the handler hits, it has to
+ * report it to the user instead of throwing out of dispatch() and ending the program.
+ */
+public class SchedulerTest {
+
+    public static void main(String[] args) {
+        Session session = new Session();
+        String output = run(session, "report 2026-11-01 2026-11-30");
+        isTrue(output.contains("Please login as a caregiver first!"), "report without a login printed: " + output);
+
+        session.setCurrentCaregiver(new Caregiver.CaregiverBuilder("bob", new byte[16], new byte[16], null).build());
+        output = run(session, "report 2026-11-01 2026-11-30");
+        isTrue(output.contains("Error occurred when building the report"),
+                "report without a database printed: " + output);
+
+        output = run(session, "report 2026-11-30 2026-11-01");
+        isTrue(output.contains("Invalid input"), "report with the dates swapped printed: " + output);
+        System.out.println("SchedulerTest passed");
+    }
+
+    // the command's output, the test fails if it throws
+    private static String run(Session session, String line) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            Scheduler.dispatch(session, line);
+        } finally {
+            System.setOut(out);
+        }
+        return captured.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,35 @@
+package scheduler.command;
+
+import scheduler.Session;
+
+import static scheduler.Check.equal;
+import static scheduler.Check.isTrue;
+
+public class AdmissionControllerTest {
+
+    public static void main(String[] args) {
+        refundsCommandTokenWhenUserIsLimited();
+        System.out.println("AdmissionControllerTest passed");
+    }
+
+    private static void refundsCommandTokenWhenUserIsLimited() {
+        // two commands a burst for everyone, one per user, and next to no refill during the test
+        CommandSpec spec = new CommandSpec.CommandSpecBuilder("login_patient", (session, arguments) -> { })
+                .rateLimit(0.001, 2)
+                .userRateLimit(0.001, 1)
+                .noDatabase()
+                .build();
+        AdmissionController admission = new AdmissionController();
+        Session session = new Session();
+
+        equal(0L, admission.admit(spec, session, login("alice")), "first command of alice");
+        isTrue(admission.admit(spec, session, login("alice")) > 0, "second command of alice");
+        // alice's rejected command must not have used up the token left for everyone else
+        equal(0L, admission.admit(spec, session, login("bob")), "first command of bob");
+        isTrue(admission.admit(spec, session, login("carol")) > 0, "command after the burst");
+    }
+
+    private static Arguments login(String username) {
+        return new Arguments(new Object[]{username, "pw"});
+    }
+}
@@ -0,0 +1,19 @@
+package scheduler.command;
+
+import static scheduler.Check.equal;
+import static scheduler.Check.isTrue;
+
+public class TokenizerTest {
+
+    public static void main(String[] args) {
+        equal(new String[]{"reserve", "2026-11-02", "Pfizer"}, Tokenizer.tokenize("reserve 2026-11-02 Pfizer"),
+                "single spaces");
+        equal(new String[]{"login_patient", "alice", "pw"}, Tokenizer.tokenize("  login_patient \t alice   pw \n"),
+                "leading, trailing and repeated whitespace");
+        equal(new String[]{"logout"}, Tokenizer.tokenize("logout"), "one token");
+        isTrue(Tokenizer.tokenize("").length == 0, "empty line");
+        isTrue(Tokenizer.tokenize(" \t ").length == 0, "whitespace only");
+        isTrue(Tokenizer.tokenize(null).length == 0, "null line");
+        System.out.println("TokenizerTest passed");
+    }
+}
@@ -0,0 +1,91 @@
+package scheduler.export;
+
+import scheduler.db.ShardedConnections;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static scheduler.Check.equal;
+import static scheduler.Check.isTrue;
+
+public class AppointmentExporterTest {
+
+    private static final Date FROM = Date.valueOf("2026-11-01");
+    private static final Date TO = Date.valueOf("2026-11-30");
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("export-test");
+        try {
+            Path exportDir = Files.createDirectory(root.resolve("exports"));
+            resolvesInside(exportDir);
+            keepsExistingFiles(exportDir);
+            staysOutOfLinks(root, exportDir);
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.out.println("AppointmentExporterTest passed");
+    }
+
+    private static void resolvesInside(Path exportDir) {
+        equal(exportDir.resolve("day.csv"), AppointmentExporter.resolve(exportDir, "day.csv"), "plain name");
+        equal(exportDir.resolve("2026/day.csv"), AppointmentExporter.resolve(exportDir, "2026/day.csv"),
+                "name in a subdirectory");
+        equal(exportDir.resolve("day.csv"), AppointmentExporter.resolve(exportDir, "./day.csv"), "name with a .");
+        for (String name : new String[]{"", ".", "/etc/passwd", exportDir.resolve("day.csv").toString(), "..",
+                "../day.csv", "2026/../../day.csv", "2026/.."}) {
+            try {
+                AppointmentExporter.resolve(exportDir, name);
+                throw new AssertionError("\"" + name + "\" was accepted");
+            } catch (IllegalArgumentException expected) {
+                // rejected as it should be
+            }
+        }
+    }
+
+    // without overwrite an existing file is refused before anything is read from the database
+    private static void keepsExistingFiles(Path exportDir) throws Exception {
+        Path path = AppointmentExporter.resolve(exportDir, "existing.csv");
+        Files.write(path, "keep me".getBytes(StandardCharsets.UTF_8));
+        try {
+            AppointmentExporter.export(new ShardedConnections(null), FROM, TO, exportDir, path,
+                    AppointmentExporter.Format.CSV, false, 100);
+            throw new AssertionError("existing file was overwritten");
+        } catch (FileAlreadyExistsException expected) {
+            // refused as it should be
+        }
+        equal("keep me", new String(Files.readAllBytes(path), StandardCharsets.UTF_8), "existing file contents");
+        isTrue(!Files.exists(path.resolveSibling("existing.csv.tmp")), "temporary file left behind");
+    }
+
+    // a symbolic link inside the export directory must not let a name escape it
+    private static void staysOutOfLinks(Path root, Path exportDir) throws Exception {
+        Path outside = Files.createDirectory(root.resolve("outside"));
+        try {
+            Files.createSymbolicLink(exportDir.resolve("link"), outside);
+        } catch (UnsupportedOperationException | IOException e) {
+            System.out.println("symbolic links not supported here, skipping that check");
+            return;
+        }
+        Path path = AppointmentExporter.resolve(exportDir, "link/day.csv");
+        try {
+            AppointmentExporter.export(new ShardedConnections(null), FROM, TO, exportDir, path,
+                    AppointmentExporter.Format.CSV, false, 100);
+            throw new AssertionError("export followed a link out of the export directory");
+        } catch (FileAlreadyExistsException e) {
+            throw new AssertionError("export followed a link out of the export directory", e);
+        } catch (IOException expected) {
+            // refused as it should be
+        }
+        try (Stream<Path> files = Files.list(outside)) {
+            equal(0L, files.count(), "files written outside the export directory");
+        }
+    }
+}
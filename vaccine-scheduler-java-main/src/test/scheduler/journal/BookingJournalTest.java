@@ -0,0 +1,148 @@
+package scheduler.journal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import static scheduler.Check.equal;
+import static scheduler.Check.isTrue;
+
+public class BookingJournalTest {
+
+    private static final long SIZE = 64 + 16 * 512;
+    private static final Date DATE = Date.valueOf("2026-11-02");
+
+    public static void main(String[] args) throws Exception {
+        replaysWhatWasWritten();
+        dropsDamagedRecords();
+        tracksPendingBookings();
+        refusesOversizedFile();
+        System.out.println("BookingJournalTest passed");
+    }
+
+    private static void replaysWhatWasWritten() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            BookingJournal journal = BookingJournal.open(path, SIZE, 0);
+            String id = journal.getJournalId();
+            writeThree(journal);
+            journal.close();
+
+            journal = BookingJournal.open(path, SIZE, 0);
+            equal(id, journal.getJournalId(), "journal id after reopening");
+            List<BookingEvent> events = replay(journal);
+            equal(3, events.size(), "events replayed");
+            BookingEvent reserve = events.get(2);
+            equal(BookingEvent.Type.RESERVE, reserve.getType(), "type");
+            equal(3L, reserve.getSequence(), "sequence");
+            equal(DATE, reserve.getDate(), "date");
+            equal("alice", reserve.getPatient(), "patient");
+            equal("bob", reserve.getCaregiver(), "caregiver");
+            equal("Pfizer", reserve.getVaccine(), "vaccine");
+            equal("Clinic", reserve.getLocation(), "location");
+            equal(5, events.get(1).getAmount(), "doses added");
+
+            // numbering carries on after the recovered records
+            equal(4L, journal.appendAndWait(BookingEvent.addDoses("Clinic", "Moderna", 1)), "next sequence");
+            journal.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static void dropsDamagedRecords() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            BookingJournal journal = BookingJournal.open(path, SIZE, 0);
+            writeThree(journal);
+            journal.close();
+
+            // a damaged last record fails its CRC and is dropped
+            flipByte(path, 3);
+            journal = BookingJournal.open(path, SIZE, 0);
+            equal(2, replay(journal).size(), "events left after damaging the last one");
+            journal.close();
+
+            // records after a damaged one were never acknowledged as durable, so they go too
+            flipByte(path, 1);
+            journal = BookingJournal.open(path, SIZE, 0);
+            equal(0, replay(journal).size(), "events left after damaging the first one");
+            journal.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static void tracksPendingBookings() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            BookingJournal journal = BookingJournal.open(path, SIZE, 0);
+            writeThree(journal);
+            isTrue(journal.isPendingBooked("BOB", DATE), "the slot is pending whatever the case of the name");
+            equal(4, journal.pendingDoseDelta("clinic", "pfizer"), "pending doses, added 5 and reserved 1");
+            equal(-1L, journal.appendReservation(BookingEvent.reserve("carol", "Bob", "Pfizer", "Clinic", DATE), 0),
+                    "second reservation for the same slot");
+            // a stock of -4 in the database leaves the 4 pending doses with none to spare
+            equal(-2L, journal.appendReservation(BookingEvent.reserve("carol", "dan", "Pfizer", "Clinic", DATE), -4),
+                    "reservation with no dose left");
+            isTrue(journal.appendReservation(BookingEvent.reserve("carol", "dan", "Pfizer", "Clinic", DATE), -3) > 0,
+                    "reservation of the last dose");
+            equal(-2L, journal.appendReservation(BookingEvent.reserve("erin", "frank", "Pfizer", "Clinic", DATE),
+                    -3), "reservation after the last dose");
+            journal.close();
+
+            // pending bookings survive a restart until they are replicated
+            journal = BookingJournal.open(path, SIZE, 0);
+            isTrue(journal.isPendingBooked("bob", DATE), "pending after reopening");
+            for (int i = 0; i < 4; i++) {
+                journal.markReplicated(journal.nextToReplicate());
+            }
+            isTrue(!journal.isPendingBooked("bob", DATE), "pending after replication");
+            equal(0, journal.pendingDoseDelta("Clinic", "Pfizer"), "pending doses after replication");
+            equal(4L, journal.getReplicatedSequence(), "replicated sequence");
+            journal.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static void refusesOversizedFile() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            BookingJournal.open(path, 2048L * 1024 * 1024, 0);
+            isTrue(false, "opened a journal of 2 GB");
+        } catch (IOException e) {
+            equal(0L, Files.size(path), "file size after refusing it");
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static void writeThree(BookingJournal journal) throws InterruptedException {
+        journal.appendAndWait(BookingEvent.availability("bob", "Clinic", DATE));
+        journal.appendAndWait(BookingEvent.addDoses("Clinic", "Pfizer", 5));
+        journal.awaitDurable(journal.appendReservation(BookingEvent.reserve("alice", "bob", "Pfizer", "Clinic",
+                DATE), 0));
+    }
+
+    private static List<BookingEvent> replay(BookingJournal journal) {
+        List<BookingEvent> events = new ArrayList<>();
+        journal.replay(1, events::add);
+        return events;
+    }
+
+    // change one byte of the patient name in the record of the given sequence
+    private static void flipByte(Path path, long sequence) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            long position = 64 + (sequence - 1) * 512 + 40;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+    }
+}
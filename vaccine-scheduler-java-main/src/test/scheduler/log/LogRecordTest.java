@@ -0,0 +1,25 @@
+package scheduler.log;
+
+import java.util.Locale;
+
+import static scheduler.Check.isTrue;
+
+public class LogRecordTest {
+
+    public static void main(String[] args) {
+        // a comma as the decimal separator must not leak into the JSON
+        Locale.setDefault(Locale.GERMANY);
+        StringBuilder out = new StringBuilder();
+        LogRecord.audit("reserve", "alice", "ok", 1_500_000).appendJson(out);
+        String line = out.toString();
+        isTrue(line.contains("\"type\":\"audit\""), "type in " + line);
+        isTrue(line.contains("\"latency_ms\":1.500"), "latency in " + line);
+
+        out.setLength(0);
+        LogRecord.error("bad \"name\"\n", null).appendJson(out);
+        line = out.toString();
+        isTrue(line.contains("\"message\":\"bad \\\"name\\\"\\n\""), "escaped message in " + line);
+        isTrue(line.endsWith("}\n") && line.indexOf('\n') == line.length() - 1, "one line: " + line);
+        System.out.println("LogRecordTest passed");
+    }
+}
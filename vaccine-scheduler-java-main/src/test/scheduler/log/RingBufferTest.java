@@ -0,0 +1,76 @@
+package scheduler.log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static scheduler.Check.equal;
+import static scheduler.Check.isTrue;
+
+public class RingBufferTest {
+
+    public static void main(String[] args) throws Exception {
+        singleThread();
+        manyProducers();
+        System.out.println("RingBufferTest passed");
+    }
+
+    private static void singleThread() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(8);
+        equal(null, buffer.poll(), "poll on an empty buffer");
+        // several laps around the ring, filling it every time
+        int next = 0;
+        int expected = 0;
+        for (int lap = 0; lap < 5; lap++) {
+            while (buffer.offer(next)) {
+                next++;
+            }
+            equal(8 * (lap + 1), next, "items accepted before the buffer was full on lap " + lap);
+            Integer item;
+            while ((item = buffer.poll()) != null) {
+                equal(expected++, item, "items come out in order");
+            }
+            equal(next, expected, "items polled on lap " + lap);
+        }
+    }
+
+    // every item offered is polled exactly once, and each producer's items stay in order
+    private static void manyProducers() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 200000;
+        RingBuffer<long[]> buffer = new RingBuffer<>(1024);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    long[] item = {producer, i};
+                    while (!buffer.offer(item)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long[] nextFrom = new long[producers];
+        long received = 0;
+        long deadline = System.currentTimeMillis() + 60000;
+        while (received < (long) producers * perProducer) {
+            long[] item = buffer.poll();
+            if (item == null) {
+                isTrue(System.currentTimeMillis() < deadline, "only " + received + " items arrived");
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) item[0];
+            equal(nextFrom[producer], item[1], "next item from producer " + producer);
+            nextFrom[producer]++;
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        equal(null, buffer.poll(), "poll after everything was received");
+    }
+}
@@ -0,0 +1,142 @@
+package scheduler.reminder;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static scheduler.Check.equal;
+import static scheduler.Check.isTrue;
+
+/**
+ * The checkpoint compare-and-set in ReminderJob.flush(), against a stand-in for the two tables it writes,
+ * so it runs without a database.
+ */
+public class ReminderJobTest {
+
+    private static final Date DAY = Date.valueOf("2026-11-02");
+
+    public static void main(String[] args) throws Exception {
+        FakeDatabase db = new FakeDatabase();
+        Connection con = db.connection();
+
+        isTrue(ReminderJob.flush(con, DAY, reminders("alice", "bob"), "", "bob", false),
+                "first batch from the initial checkpoint");
+        equal("bob", db.lastPatient, "checkpoint after the first batch");
+        equal(2, db.outbox.size(), "reminders after the first batch");
+
+        // a second run that read the checkpoint before the first batch committed must not write its batch
+        isTrue(!ReminderJob.flush(con, DAY, reminders("alice", "bob"), "", "bob", false),
+                "batch from a checkpoint that has moved on");
+        equal("bob", db.lastPatient, "checkpoint after the refused batch");
+        equal(2, db.outbox.size(), "reminders after the refused batch");
+        isTrue(db.rolledBack, "refused batch was not rolled back");
+
+        isTrue(ReminderJob.flush(con, DAY, reminders("carol"), "bob", "carol", true), "last batch");
+        equal("carol", db.lastPatient, "checkpoint after the last batch");
+        isTrue(db.finished != null, "day marked finished");
+        equal(3, db.outbox.size(), "reminders after the last batch");
+
+        // nothing more is written for a finished day, even from the current checkpoint
+        isTrue(!ReminderJob.flush(con, DAY, reminders("dave"), "carol", "dave", true),
+                "batch after the day was finished");
+        equal(3, db.outbox.size(), "reminders after the day was finished");
+        System.out.println("ReminderJobTest passed");
+    }
+
+    private static List<ReminderJob.Reminder> reminders(String... patients) {
+        List<ReminderJob.Reminder> batch = new ArrayList<>();
+        for (String patient : patients) {
+            batch.add(new ReminderJob.Reminder(patient, "patient", "Reminder for " + DAY));
+        }
+        return batch;
+    }
+
+    // one ReminderCheckpoint row and the ReminderOutbox table, understanding only the statements flush() runs
+    private static class FakeDatabase {
+        private String lastPatient = "";
+        private Timestamp finished = null;
+        private final List<String> outbox = new ArrayList<>();
+        private boolean rolledBack = false;
+
+        // written by the open transaction
+        private String pendingLastPatient;
+        private Timestamp pendingFinished;
+        private final List<String> pendingOutbox = new ArrayList<>();
+
+        Connection connection() {
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "prepareStatement":
+                                return statement((String) args[0]);
+                            case "commit":
+                                if (pendingLastPatient != null) {
+                                    lastPatient = pendingLastPatient;
+                                    finished = pendingFinished;
+                                }
+                                outbox.addAll(pendingOutbox);
+                                clearPending();
+                                return null;
+                            case "rollback":
+                                rolledBack = true;
+                                clearPending();
+                                return null;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+
+        private PreparedStatement statement(String sql) {
+            Map<Integer, Object> parameters = new HashMap<>();
+            List<String> batch = new ArrayList<>();
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "setString":
+                            case "setDate":
+                            case "setTimestamp":
+                                parameters.put((Integer) args[0], args[1]);
+                                return null;
+                            case "setNull":
+                                parameters.put((Integer) args[0], null);
+                                return null;
+                            case "executeUpdate":
+                                isTrue(sql.startsWith("UPDATE ReminderCheckpoint"), "unexpected update: " + sql);
+                                if (!DAY.equals(parameters.get(3)) || !lastPatient.equals(parameters.get(4))
+                                        || finished != null) {
+                                    return 0;
+                                }
+                                pendingLastPatient = (String) parameters.get(1);
+                                pendingFinished = (Timestamp) parameters.get(2);
+                                return 1;
+                            case "addBatch":
+                                isTrue(sql.startsWith("INSERT INTO ReminderOutbox"), "unexpected insert: " + sql);
+                                batch.add((String) parameters.get(2));
+                                return null;
+                            case "executeBatch":
+                                pendingOutbox.addAll(batch);
+                                int[] counts = new int[batch.size()];
+                                Arrays.fill(counts, 1);
+                                batch.clear();
+                                return counts;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+
+        private void clearPending() {
+            pendingLastPatient = null;
+            pendingFinished = null;
+            pendingOutbox.clear();
+        }
+    }
+}
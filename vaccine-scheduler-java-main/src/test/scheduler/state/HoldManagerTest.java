@@ -0,0 +1,52 @@
+package scheduler.state;
+
+import java.sql.Date;
+
+import static scheduler.Check.equal;
+import static scheduler.Check.isTrue;
+
+public class HoldManagerTest {
+
+    private static final Date DATE = Date.valueOf("2026-11-02");
+
+    public static void main(String[] args) throws InterruptedException {
+        HoldManager holds = new HoldManager(60 * 1000);
+
+        // two doses in stock, whatever case the vaccine and clinic are typed in
+        HoldManager.Hold first = holds.hold("alice", "bob", DATE, "Pfizer", "Main", 2);
+        isTrue(first != null, "first hold");
+        equal(1, holds.heldDoses("main", "pfizer"), "held doses looked up in another case");
+        isTrue(holds.isHeld("BOB", DATE), "slot looked up in another case");
+        equal(null, holds.hold("carol", "Bob", DATE, "Pfizer", "Main", 2), "second hold on the same slot");
+
+        HoldManager.Hold second = holds.hold("carol", "dave", DATE, "pfizer", "main", 2);
+        isTrue(second != null, "hold on the last dose");
+        equal(null, holds.hold("erin", "frank", DATE, "PFIZER", "MAIN", 2), "hold with every dose held");
+
+        // only the patient who made a hold can release it
+        isTrue(!holds.release(first.getHoldId(), "carol"), "release by another patient");
+        isTrue(holds.release(first.getHoldId(), "Alice"), "release by the patient");
+        isTrue(!holds.isHeld("bob", DATE), "slot after release");
+        equal(1, holds.heldDoses("Main", "Pfizer"), "held doses after release");
+
+        // a claimed hold keeps its dose until it is finished
+        HoldManager.Hold claimed = holds.claim(second.getHoldId(), "carol");
+        isTrue(claimed != null, "claim");
+        equal(null, holds.claim(second.getHoldId(), "carol"), "claim twice");
+        equal(1, holds.heldDoses("main", "pfizer"), "held doses while claimed");
+        holds.finish(claimed);
+        equal(0, holds.heldDoses("main", "pfizer"), "held doses after finish");
+        equal(0, holds.size(), "holds left");
+
+        // holds run out after the TTL, the wheel ticks once a second
+        HoldManager expiring = new HoldManager(1);
+        isTrue(expiring.hold("alice", "bob", DATE, "Pfizer", "Main", 1) != null, "hold that expires");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (expiring.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        equal(0, expiring.size(), "holds after the TTL");
+        equal(0, expiring.heldDoses("main", "pfizer"), "held doses after the TTL");
+        System.out.println("HoldManagerTest passed");
+    }
+}
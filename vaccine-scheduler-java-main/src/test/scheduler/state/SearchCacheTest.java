@@ -0,0 +1,58 @@
+package scheduler.state;
+
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static scheduler.Check.equal;
+import static scheduler.Check.isTrue;
+
+public class SearchCacheTest {
+
+    private static final Date MONDAY = Date.valueOf("2026-11-02");
+    private static final Date TUESDAY = Date.valueOf("2026-11-03");
+
+    public static void main(String[] args) {
+        SearchCache cache = new SearchCache(2);
+        equal(null, cache.getCaregivers("main", MONDAY), "nothing cached yet");
+
+        // each date keeps ids, the names come back in the order they were put
+        cache.putCaregivers("main", MONDAY, caregivers(3, new String("carol"), 1, new String("alice")),
+                cache.generation());
+        cache.putCaregivers("main", TUESDAY, caregivers(1, new String("alice")), cache.generation());
+        equal(Arrays.asList("carol", "alice"), cache.getCaregivers("main", MONDAY), "monday");
+        equal(Collections.singletonList("alice"), cache.getCaregivers("main", TUESDAY), "tuesday");
+        isTrue(cache.getCaregivers("main", MONDAY).get(1) == cache.getCaregivers("main", TUESDAY).get(0),
+                "a name is kept once for all the dates that list it");
+        equal(null, cache.getCaregivers("other", MONDAY), "another location");
+
+        // a change drops exactly its date, and a load that raced with it is not stored
+        long loadedAt = cache.generation();
+        cache.onDateChanged("main", MONDAY);
+        equal(null, cache.getCaregivers("main", MONDAY), "monday after a change");
+        equal(Collections.singletonList("alice"), cache.getCaregivers("main", TUESDAY), "tuesday after a change");
+        cache.putCaregivers("main", MONDAY, caregivers(1, "alice"), loadedAt);
+        equal(null, cache.getCaregivers("main", MONDAY), "monday loaded before the change");
+
+        // an empty date is cached too
+        cache.putCaregivers("main", MONDAY, caregivers(), cache.generation());
+        List<String> empty = cache.getCaregivers("main", MONDAY);
+        isTrue(empty != null && empty.isEmpty(), "empty date");
+
+        cache.clear();
+        equal(null, cache.getCaregivers("main", TUESDAY), "tuesday after clear");
+        System.out.println("SearchCacheTest passed");
+    }
+
+    // id, name, id, name, ...
+    private static Map<Integer, String> caregivers(Object... idsAndNames) {
+        Map<Integer, String> caregivers = new LinkedHashMap<>();
+        for (int i = 0; i < idsAndNames.length; i += 2) {
+            caregivers.put((Integer) idsAndNames[i], (String) idsAndNames[i + 1]);
+        }
+        return caregivers;
+    }
+}
@@ -0,0 +1,64 @@
+package scheduler.state;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static scheduler.Check.equal;
+import static scheduler.Check.isTrue;
+
+public class StateSnapshotTest {
+
+    public static void main(String[] args) throws Exception {
+        Path path = Files.createTempFile("snapshot", ".bin");
+        try {
+            SchedulerState state = new SchedulerState();
+            state.onPatientCreated("alice");
+            state.onPatientCreated("Zoë");
+            state.onCaregiverCreated("bob");
+            StateSnapshot.write(state, path);
+
+            SchedulerState loaded = StateSnapshot.read(path);
+            isTrue(loaded != null, "snapshot could not be read back");
+            equal(new HashSet<>(state.getPatients()), new HashSet<>(loaded.getPatients()), "patients");
+            equal(new HashSet<>(state.getCaregivers()), new HashSet<>(loaded.getCaregivers()), "caregivers");
+            isTrue(Arrays.equals(state.fingerprint(), loaded.fingerprint()), "fingerprint");
+
+            // the leading bytes of SHA-256 over UTF-16LE, as HASHBYTES computes them on an nvarchar
+            equal(-541657791L, SchedulerState.nameHashSum(new HashSet<>(Arrays.asList("alice"))), "name hash");
+            equal(-541657791L - 893192568L, SchedulerState.nameHashSum(new HashSet<>(Arrays.asList("alice", "bob"))),
+                    "name hash sum");
+            // one user deleted and another created keeps the counts but not the fingerprint
+            SchedulerState swapped = new SchedulerState();
+            swapped.onPatientCreated("alice");
+            swapped.onPatientCreated("carol");
+            swapped.onCaregiverCreated("bob");
+            isTrue(!Arrays.equals(state.fingerprint(), swapped.fingerprint()), "fingerprint after a swap");
+
+            // an empty state round trips too
+            StateSnapshot.write(new SchedulerState(), path);
+            loaded = StateSnapshot.read(path);
+            isTrue(loaded != null && loaded.getPatients().isEmpty() && loaded.getCaregivers().isEmpty(),
+                    "empty snapshot");
+
+            // a damaged file fails its checksum and is ignored rather than half loaded
+            StateSnapshot.write(state, path);
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.seek(file.length() - 12);
+                int value = file.read();
+                file.seek(file.length() - 12);
+                file.write(value ^ 0xFF);
+            }
+            equal(null, StateSnapshot.read(path), "damaged snapshot");
+
+            // so is a file too short to be a snapshot
+            Files.write(path, new byte[]{1, 2, 3});
+            equal(null, StateSnapshot.read(path), "truncated snapshot");
+        } finally {
+            Files.deleteIfExists(path);
+        }
+        System.out.println("StateSnapshotTest passed");
+    }
+}
@@ -0,0 +1,41 @@
+package scheduler.util;
+
+import static scheduler.Check.isTrue;
+
+public class BloomFilterTest {
+
+    public static void main(String[] args) {
+        int n = 10000;
+        double rate = 0.01;
+        BloomFilter filter = new BloomFilter(n, rate);
+        for (int i = 0; i < n; i++) {
+            filter.add("user" + i);
+        }
+
+        // never a false negative
+        for (int i = 0; i < n; i++) {
+            isTrue(filter.mightContain("user" + i), "added value user" + i + " is reported missing");
+        }
+
+        // false positives near the rate the filter was sized for, with generous slack
+        int falsePositives = 0;
+        for (int i = n; i < 2 * n; i++) {
+            if (filter.mightContain("user" + i)) {
+                falsePositives++;
+            }
+        }
+        isTrue(falsePositives < 3 * rate * n, falsePositives + " false positives in " + n + " lookups");
+
+        isTrue(!new BloomFilter(10, rate).mightContain("alice"), "empty filter contains a value");
+
+        for (double badRate : new double[]{0, 1, -0.5}) {
+            try {
+                new BloomFilter(n, badRate);
+                throw new AssertionError("false-positive rate " + badRate + " was accepted");
+            } catch (IllegalArgumentException expected) {
+                // rejected as it should be
+            }
+        }
+        System.out.println("BloomFilterTest passed");
+    }
+}
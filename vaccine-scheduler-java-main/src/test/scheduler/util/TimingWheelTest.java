@@ -0,0 +1,47 @@
+package scheduler.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static scheduler.Check.isTrue;
+
+public class TimingWheelTest {
+
+    private static final long TICK_MILLIS = 10;
+
+    public static void main(String[] args) throws Exception {
+        // 8 buckets, so one revolution is 80 ms and the longer delays take several rounds
+        TimingWheel wheel = new TimingWheel(TICK_MILLIS, 8, "timing-wheel-test");
+        try {
+            for (long delay : new long[]{1, 35, 80, 250}) {
+                firesOnTime(wheel, delay);
+            }
+
+            AtomicBoolean ran = new AtomicBoolean(false);
+            TimingWheel.Timeout cancelled = wheel.schedule(() -> ran.set(true), 30);
+            cancelled.cancel();
+            isTrue(cancelled.isCancelled(), "timeout reports it was cancelled");
+            // a later task on the same wheel shows the cancelled one's tick has passed
+            firesOnTime(wheel, 60);
+            isTrue(!ran.get(), "cancelled task ran");
+        } finally {
+            wheel.stop();
+        }
+        System.out.println("TimingWheelTest passed");
+    }
+
+    private static void firesOnTime(TimingWheel wheel, long delayMillis) throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long[] firedAt = new long[1];
+        long scheduledAt = System.nanoTime();
+        wheel.schedule(() -> {
+            firedAt[0] = System.nanoTime();
+            fired.countDown();
+        }, delayMillis);
+        isTrue(fired.await(delayMillis + 2000, TimeUnit.MILLISECONDS), "task due in " + delayMillis + " ms never ran");
+        // the wheel reads System.currentTimeMillis(), allow for its millisecond resolution
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(firedAt[0] - scheduledAt) + 1;
+        isTrue(elapsedMillis >= delayMillis, "task due in " + delayMillis + " ms ran after " + elapsedMillis + " ms");
+    }
+}